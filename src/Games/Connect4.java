@@ -1,8 +1,7 @@
 package Games;
 
+import Helpers.PackedValue;
 import Helpers.Piece;
-import Helpers.Primitive;
-import Helpers.Tuple;
 
 import java.io.Serializable;
 import java.util.*;
@@ -12,6 +11,10 @@ public class Connect4 implements Serializable {
     int height;
     int win;
     Piece[] gameStartingPosition;
+    int stride; // Bits per column in a Position, one more than height for the sentinel
+    long bottomMask; // Lowest square of every column
+    long boardMask; // Every square of the board, no sentinels
+    WinDetector detector; // null if the board does not fit in a Position, see requireBitboard
 
     /** Pieces stored in column major order, starting from bottom right*/
     public Connect4(int w, int h, int wi) {
@@ -20,6 +23,26 @@ public class Connect4 implements Serializable {
         win = wi;
         gameStartingPosition = new Piece[w*h];
         Arrays.fill(gameStartingPosition, Piece.EMPTY);
+        stride = h + 1;
+        // Larger boards only have the Piece[] API
+        if (w * stride <= Long.SIZE) {
+            for (int c = 0; c < w; c++) {
+                bottomMask |= 1L << (c * stride);
+            }
+            boardMask = bottomMask * ((1L << h) - 1);
+            detector = new WinDetector(w, h, wi);
+        }
+    }
+
+    /** Whether boards this size fit in a Position, which every bitboard method needs */
+    public boolean fitsBitboard() {
+        return detector != null;
+    }
+
+    private void requireBitboard() {
+        if (detector == null) {
+            throw new IllegalStateException(width + "x" + height + " does not fit in a 64 bit board");
+        }
     }
 
     public Piece[] getStartingPositions() {
@@ -34,6 +57,47 @@ public class Connect4 implements Serializable {
         return newPosition;
     }
 
+    /** Drops p into column of position in place, returns the index it landed on */
+    public int makeMove(Piece[] position, int[] heights, int column, Piece p) {
+        int move = heights[column] + column * height;
+        position[move] = p;
+        heights[column]++;
+        return move;
+    }
+
+    /** Undoes makeMove(position, heights, column, p) */
+    public void unmakeMove(Piece[] position, int[] heights, int column) {
+        heights[column]--;
+        position[heights[column] + column * height] = Piece.EMPTY;
+    }
+
+    /** Number of pieces in each column */
+    public int[] getHeights(Piece[] position) {
+        return getHeights(position, new int[width]);
+    }
+
+    /** getHeights that fills in heights instead of allocating it */
+    public int[] getHeights(Piece[] position, int[] heights) {
+        for (int c = 0; c < width; c++) {
+            heights[c] = 0;
+            while (heights[c] < height && position[heights[c] + c * height] != Piece.EMPTY) {
+                heights[c]++;
+            }
+        }
+        return heights;
+    }
+
+    /** Fills moves with the lowest empty index of every column that is not full, returns how many there are */
+    public int generateMoves(int[] heights, int[] moves) {
+        int n = 0;
+        for (int c = 0; c < width; c++) {
+            if (heights[c] < height) {
+                moves[n++] = heights[c] + c * height;
+            }
+        }
+        return n;
+    }
+
 
     public List<Integer> generateMoves(Piece[] position) {
         List<Integer> ret = new ArrayList<>();
@@ -47,7 +111,7 @@ public class Connect4 implements Serializable {
         return ret;
     }
 
-    public Tuple<Primitive, Integer> isPrimitive(Piece[] position, Piece placed) {
+    public byte isPrimitive(Piece[] position, Piece placed) {
         boolean full = true;
         for (int column = 0; column < width; column++) {
             int row = height - 1;
@@ -70,7 +134,7 @@ public class Connect4 implements Serializable {
                         break;
                     }
                     if (r == row - win + 1) {
-                        return new Tuple<>(Primitive.LOSS, 0);
+                        return PackedValue.PRIMITIVE_LOSS;
                     }
                 }
             }
@@ -93,7 +157,7 @@ public class Connect4 implements Serializable {
                     }
                 }
                 if (in_a_row >= win) {
-                    return new Tuple<>(Primitive.LOSS, 0);
+                    return PackedValue.PRIMITIVE_LOSS;
                 }
             }
 
@@ -116,7 +180,7 @@ public class Connect4 implements Serializable {
                     }
                 }
                 if (in_a_diag >= win) {
-                    return new Tuple<>(Primitive.LOSS, 0);
+                    return PackedValue.PRIMITIVE_LOSS;
                 }
             }
 
@@ -139,19 +203,19 @@ public class Connect4 implements Serializable {
                     }
                 }
                 if (in_a_diag >= win) {
-                    return new Tuple<>(Primitive.LOSS, 0);
+                    return PackedValue.PRIMITIVE_LOSS;
                 }
             }
         }
         if (full) {
-            return new Tuple<>(Primitive.TIE, 0);
+            return PackedValue.PRIMITIVE_TIE;
         } else {
-            return new Tuple<>(Primitive.NOT_PRIMITIVE, 0);
+            return PackedValue.NOT_PRIMITIVE;
         }
     }
 
     // The same as isPrimitive(position, placed) except we only check the one location we need to
-    public Tuple<Primitive, Integer> isPrimitive(Piece[] position, Piece placed, int location) {
+    public byte isPrimitive(Piece[] position, Piece placed, int location) {
         if (location == -1) {
             return isPrimitive(position, placed);
         }
@@ -173,7 +237,7 @@ public class Connect4 implements Serializable {
                     break;
                 }
                 if (r == row - win + 1) {
-                    return new Tuple<>(Primitive.LOSS, 0);
+                    return PackedValue.PRIMITIVE_LOSS;
                 }
             }
         }
@@ -196,7 +260,7 @@ public class Connect4 implements Serializable {
                 }
             }
             if (in_a_row >= win) {
-                return new Tuple<>(Primitive.LOSS, 0);
+                return PackedValue.PRIMITIVE_LOSS;
             }
         }
 
@@ -219,7 +283,7 @@ public class Connect4 implements Serializable {
                 }
             }
             if (in_a_diag >= win) {
-                return new Tuple<>(Primitive.LOSS, 0);
+                return PackedValue.PRIMITIVE_LOSS;
             }
         }
 
@@ -242,14 +306,14 @@ public class Connect4 implements Serializable {
                 }
             }
             if (in_a_diag >= win) {
-                return new Tuple<>(Primitive.LOSS, 0);
+                return PackedValue.PRIMITIVE_LOSS;
             }
 
         }
         if (full) {
-            return new Tuple<>(Primitive.TIE, 0);
+            return PackedValue.PRIMITIVE_TIE;
         } else {
-            return new Tuple<>(Primitive.NOT_PRIMITIVE, 0);
+            return PackedValue.NOT_PRIMITIVE;
         }
     }
 
@@ -258,6 +322,119 @@ public class Connect4 implements Serializable {
         return (move % height) + (width - (move / height) - 1) * height;
     }
 
+    public Position getStartingBitboard() {
+        requireBitboard();
+        return new Position();
+    }
+
+    public Position toBitboard(Piece[] position) {
+        requireBitboard();
+        long blue = 0;
+        long red = 0;
+        int numPieces = 0;
+        for (int i = 0; i < position.length; i++) {
+            if (position[i] == Piece.BLUE) {
+                blue |= bit(i);
+                numPieces++;
+            } else if (position[i] == Piece.RED) {
+                red |= bit(i);
+                numPieces++;
+            }
+        }
+        // Blue always moves first
+        return new Position(numPieces % 2 == 0 ? blue : red, blue | red, numPieces);
+    }
+
+    public Piece[] toPieces(Position position) {
+        requireBitboard();
+        long blue = position.numPieces % 2 == 0 ? position.current : position.getOpponent();
+        Piece[] ret = new Piece[getSize()];
+        for (int i = 0; i < ret.length; i++) {
+            long b = bit(i);
+            if ((position.mask & b) == 0) {
+                ret[i] = Piece.EMPTY;
+            } else {
+                ret[i] = (blue & b) != 0 ? Piece.BLUE : Piece.RED;
+            }
+        }
+        return ret;
+    }
+
+    /** Square of Piece[] index cell in a Position */
+    public long bit(int cell) {
+        requireBitboard();
+        return detector.bit(cell);
+    }
+
+    /** Piece[] index of the single square move */
+    public int cell(long move) {
+        requireBitboard();
+        return detector.cell(move);
+    }
+
+    public Position doMove(Position position, long move) {
+        requireBitboard();
+        return new Position(position.current ^ position.mask, position.mask | move, position.numPieces + 1);
+    }
+
+    /** doMove that changes position in place instead of copying it */
+    public void makeMove(Position position, long move) {
+        requireBitboard();
+        position.current ^= position.mask;
+        position.mask |= move;
+        position.numPieces++;
+    }
+
+    /** Undoes makeMove(position, move) */
+    public void unmakeMove(Position position, long move) {
+        requireBitboard();
+        position.mask ^= move;
+        position.current ^= position.mask;
+        position.numPieces--;
+    }
+
+    /** Lowest empty square of every column that is not full */
+    public long generateMoves(Position position) {
+        requireBitboard();
+        return (position.mask + bottomMask) & boardMask;
+    }
+
+    /** Checks the player that just moved, since they are the only one that could have won */
+    public byte isPrimitive(Position position) {
+        requireBitboard();
+        if (detector.hasWin(position.getOpponent())) {
+            return PackedValue.PRIMITIVE_LOSS;
+        }
+        return position.mask == boardMask ? PackedValue.PRIMITIVE_TIE : PackedValue.NOT_PRIMITIVE;
+    }
+
+    // The same as isPrimitive(position) except we only check lines through the Piece[] index location
+    public byte isPrimitive(Position position, int location) {
+        requireBitboard();
+        if (location == -1) {
+            return isPrimitive(position);
+        }
+        if (detector.completesWin(position.getOpponent(), detector.index(location))) {
+            return PackedValue.PRIMITIVE_LOSS;
+        }
+        return position.mask == boardMask ? PackedValue.PRIMITIVE_TIE : PackedValue.NOT_PRIMITIVE;
+    }
+
+    public long symMove(long move) {
+        return mirror(move);
+    }
+
+    /** Flips every column of the board left to right */
+    public long mirror(long bits) {
+        requireBitboard();
+        long column = (1L << stride) - 1;
+        long ret = 0;
+        for (int c = 0; c < width; c++) {
+            ret |= ((bits >>> (c * stride)) & column) << ((width - c - 1) * stride);
+        }
+        return ret;
+    }
+
     public int getSize() {
         return width*height;
     }
@@ -0,0 +1,154 @@
+package Games;
+
+import Helpers.Piece;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ranks only boards that can come up in a game: pieces stacked from the bottom of every column,
+ * with BLUE having as many pieces as RED or one more. Wins are not checked, so a few boards past the
+ * end of a game still get locations, but nothing floats, so the DB is a fraction of the multinomial one.
+ * A column is its height, its number of BLUE pieces and which of its rows those are. The scan counts the
+ * boards with a smaller column in the same spot and the same pieces left for the columns after it.
+ */
+public class GravityRanker extends Ranking {
+    private static final Map<Long, GravityRanker> shared = new ConcurrentHashMap<>();
+    private final transient long[][] choose; // choose[n][k] is n choose k
+    private final transient long[][][] ways; // ways[c][p][x] is the number of ways to fill c columns with p pieces, x of them BLUE
+    private final transient long[][][][][] before; // before[c][p][x][l][k] is the boards whose column has fewer than (l, k), c columns after it
+
+    /** The one GravityRanker for a w by h board, built the first time it is asked for */
+    public static GravityRanker of(int w, int h) {
+        return shared.computeIfAbsent(((long) w << 32) | h, k -> new GravityRanker(w, h));
+    }
+
+    private GravityRanker(int w, int h) {
+        super(w, h);
+        int maxX = (size / 2) + (size % 2);
+        choose = new long[h + 1][h + 1];
+        for (int n = 0; n <= h; n++) {
+            choose[n][0] = 1;
+            for (int k = 1; k <= n; k++) {
+                choose[n][k] = choose[n - 1][k - 1] + choose[n - 1][k];
+            }
+        }
+        ways = new long[w + 1][size + 1][maxX + 1];
+        ways[0][0][0] = 1;
+        for (int c = 1; c <= w; c++) {
+            for (int p = 0; p <= size; p++) {
+                for (int x = 0; x <= Math.min(p, maxX); x++) {
+                    long count = 0;
+                    for (int l = 0; l <= Math.min(h, p); l++) {
+                        for (int k = 0; k <= Math.min(l, x); k++) {
+                            count += choose[l][k] * ways[c - 1][p - l][x - k];
+                        }
+                    }
+                    ways[c][p][x] = count;
+                }
+            }
+        }
+        before = new long[w][size + 1][maxX + 1][h + 1][h + 1];
+        for (int c = 0; c < w; c++) {
+            for (int p = 0; p <= size; p++) {
+                for (int x = 0; x <= Math.min(p, maxX); x++) {
+                    long count = 0;
+                    for (int l = 0; l <= Math.min(h, p); l++) {
+                        for (int k = 0; k <= Math.min(l, x); k++) {
+                            before[c][p][x][l][k] = count;
+                            count += choose[l][k] * ways[c][p - l][x - k];
+                        }
+                    }
+                }
+            }
+        }
+        offsets = new long[size + 1];
+        for (int n = 1; n <= size; n++) {
+            offsets[n] = offsets[n - 1] + tierSize(n - 1);
+        }
+    }
+
+    private long tierSize(int numPieces) {
+        return ways[width][numPieces][(numPieces / 2) + (numPieces % 2)];
+    }
+
+    private Object readResolve() {
+        return of(width, height);
+    }
+
+    @Override
+    public String getName() {
+        return "gravity";
+    }
+
+    @Override
+    public String getFileSuffix() {
+        return "_gravity";
+    }
+
+    @Override
+    public long getNumLocations() {
+        return offsets[size] + tierSize(size);
+    }
+
+    @Override
+    protected void scanParts(Piece[] position, int[] heights, int numPieces, int last, boolean mirrored, long[] parts) {
+        int p = numPieces;
+        int x = (numPieces / 2) + (numPieces % 2);
+        int step = mirrored ? 1 : -1;
+        for (int c = mirrored ? 0 : width - 1; c != last + step; c += step) {
+            int l = heights[c];
+            int k = 0;
+            long pattern = 0;
+            for (int r = 0; r < l; r++) {
+                if (position[r + c * height] == Piece.BLUE) {
+                    k++;
+                    pattern += choose[r][k];
+                }
+            }
+            int after = mirrored ? width - 1 - c : c; // Columns the scan has left after this one
+            parts[c] = before[after][p][x][l][k] + pattern * ways[after][p - l][x - k];
+            p -= l;
+            x -= k;
+        }
+    }
+
+    /** The board calculateLocation(board, numPieces) maps to location, written into position */
+    @Override
+    public Piece[] unrank(long location, int numPieces, Piece[] position) {
+        long rest = location - offsets[numPieces];
+        int p = numPieces;
+        int x = (numPieces / 2) + (numPieces % 2);
+        for (int c = width - 1; c >= 0; c--) {
+            // The largest column that still has boards at or below rest
+            int l = 0;
+            int k = 0;
+            for (int ll = 0; ll <= Math.min(height, p); ll++) {
+                for (int kk = 0; kk <= Math.min(ll, x); kk++) {
+                    if (ways[c][p - ll][x - kk] != 0 && before[c][p][x][ll][kk] <= rest) {
+                        l = ll;
+                        k = kk;
+                    }
+                }
+            }
+            rest -= before[c][p][x][l][k];
+            long count = ways[c][p - l][x - k];
+            long pattern = rest / count;
+            rest %= count;
+            for (int r = 0; r < height; r++) {
+                position[r + c * height] = r < l ? Piece.RED : Piece.EMPTY;
+            }
+            for (int j = k; j > 0; j--) {
+                int r = j - 1;
+                while (r + 1 < l && choose[r + 1][j] <= pattern) {
+                    r++;
+                }
+                position[r + c * height] = Piece.BLUE;
+                pattern -= choose[r][j];
+            }
+            p -= l;
+            x -= k;
+        }
+        return position;
+    }
+}
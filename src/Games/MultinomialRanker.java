@@ -0,0 +1,242 @@
+package Games;
+
+import Helpers.Piece;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ranks a board among every arrangement of the same number of pieces, offset by the boards with fewer pieces.
+ * This counts boards with pieces floating over empty cells too, so most locations are never used.
+ * The rank is a sum of one term per occupied cell, see Ranking for how that is kept per column.
+ */
+public class MultinomialRanker extends Ranking {
+    private static final Map<Long, MultinomialRanker> shared = new ConcurrentHashMap<>();
+    private final transient long[][][] savedRearrange;
+
+    /** The one MultinomialRanker for a w by h board, built the first time it is asked for */
+    public static MultinomialRanker of(int w, int h) {
+        return shared.computeIfAbsent(((long) w << 32) | h, k -> new MultinomialRanker(w, h));
+    }
+
+    private MultinomialRanker(int w, int h) {
+        super(w, h);
+        // Exact counts from Pascal's triangle, the double factorials this replaced were off past 2^53
+        long[][] choose = new long[size + 1][size + 1];
+        for (int n = 0; n <= size; n++) {
+            choose[n][0] = 1;
+            for (int k = 1; k <= n; k++) {
+                choose[n][k] = choose[n - 1][k - 1] + choose[n - 1][k];
+            }
+        }
+        savedRearrange = new long[2 + size / 2][2 + size / 2][size + 1];
+        try {
+            for (int x = 0; x < 2 + size / 2; x++) {
+                for (int o = 0; o < 2 + size / 2; o++) {
+                    for (int s = 1; s <= size; s++) {
+                        if (x + o <= s) {
+                            savedRearrange[x][o][s] = Math.multiplyExact(choose[s][x], choose[s - x][o]);
+                        }
+                    }
+                }
+            }
+            setOffsets();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("A " + w + " by " + h + " board has too many locations for a long, use GravityRanker");
+        }
+    }
+
+    private void setOffsets() {
+        offsets = new long[size + 1];
+        for (int i = 1; i < offsets.length; i++) {
+            offsets[i] = Math.addExact(offsets[i - 1], rearrange(((i - 1) / 2) + ((i - 1) % 2), (i - 1) / 2, size));
+        }
+        Math.addExact(offsets[size], rearrange((size / 2) + (size % 2), size / 2, size));
+    }
+
+    // Ways to arrange x BLUE and o RED pieces in s cells, 0 when there are no cells
+    private long rearrange(int x, int o, int s) {
+        return savedRearrange[x][o][s];
+    }
+
+    private Object readResolve() {
+        return of(width, height);
+    }
+
+    @Override
+    public String getName() {
+        return "multinomial";
+    }
+
+    @Override
+    public String getFileSuffix() {
+        return ""; // Files from before there was a choice of ranking
+    }
+
+    @Override
+    public long getNumLocations() {
+        return offsets[size] + rearrange((size / 2) + (size % 2), size / 2, size);
+    }
+
+    @Override
+    public long calculateLocationSym(Piece[] position, int numPieces) {
+        long location = offsets[numPieces];
+        int numX = (numPieces / 2) + (numPieces % 2);
+        int numO = numPieces / 2;
+        int numBlanks = position.length - numPieces;
+        int s = position.length;
+        for (int c = 0; c < width; c ++) {
+            for (int he = height - 1; he >= 0; he--) {
+                int i = c*height + he;
+                if (s == numX || s == numO || s == numBlanks) {
+                    break;
+                }
+                switch (position[i]) {
+                    case BLUE:
+                        if (numO > 0) {
+                            location += rearrange(numX, numO - 1, s - 1);
+                        }
+                        if (numBlanks > 0) {
+                            location += rearrange(numX, numO, s - 1);
+                        }
+                        numX -= 1;
+                        break;
+                    case RED:
+                        if (numBlanks > 0) {
+                            location += rearrange(numX, numO, s - 1);
+                        }
+                        numO -= 1;
+                        break;
+                    case EMPTY:
+                        numBlanks -= 1;
+                        break;
+                }
+                s -= 1;
+            }
+        }
+        return location;
+    }
+
+    @Override
+    public long calculateLocation(Piece[] position, int numPieces) {
+        long location = offsets[numPieces];
+        int numX = (numPieces / 2) + (numPieces % 2);
+        int numO = numPieces / 2;
+        int numBlanks = position.length - numPieces;
+        int s = position.length;
+        for (int i = position.length - 1; i >= 0; i--) {
+            if (s == numX || s == numO || s == numBlanks) {
+                break;
+            }
+            switch (position[i]) {
+                case BLUE:
+                    if (numO > 0) {
+                        location += rearrange(numX, numO - 1, s - 1);
+                    }
+                    if (numBlanks > 0) {
+                        location += rearrange(numX, numO, s - 1);
+                    }
+                    numX -= 1;
+                    break;
+                case RED:
+                    if (numBlanks > 0) {
+                        location += rearrange(numX, numO, s - 1);
+                    }
+                    numO -= 1;
+                    break;
+                case EMPTY:
+                    numBlanks -= 1;
+                    break;
+            }
+            s -= 1;
+        }
+        return location;
+    }
+
+    /**
+     * The board calculateLocation(board, numPieces) maps to location, written into position.
+     * Every arrangement of the pieces has a location, so the board can have pieces floating over empty cells.
+     */
+    @Override
+    public Piece[] unrank(long location, int numPieces, Piece[] position) {
+        long rest = location - offsets[numPieces];
+        int numX = (numPieces / 2) + (numPieces % 2);
+        int numO = numPieces / 2;
+        int numBlanks = size - numPieces;
+        int s = size;
+        for (int i = size - 1; i >= 0; i--) {
+            // Cells are ordered EMPTY < RED < BLUE, so skip past every board with a smaller cell here
+            if (s == numBlanks) {
+                position[i] = Piece.EMPTY;
+            } else if (s == numO) {
+                position[i] = Piece.RED;
+            } else if (s == numX) {
+                position[i] = Piece.BLUE;
+            } else {
+                long empties = numBlanks > 0 ? rearrange(numX, numO, s - 1) : 0;
+                long reds = numO > 0 ? rearrange(numX, numO - 1, s - 1) : 0;
+                if (rest < empties) {
+                    position[i] = Piece.EMPTY;
+                } else if (rest < empties + reds) {
+                    position[i] = Piece.RED;
+                    rest -= empties;
+                } else {
+                    position[i] = Piece.BLUE;
+                    rest -= empties + reds;
+                }
+            }
+            switch (position[i]) {
+                case BLUE:
+                    numX -= 1;
+                    break;
+                case RED:
+                    numO -= 1;
+                    break;
+                case EMPTY:
+                    numBlanks -= 1;
+                    break;
+            }
+            s -= 1;
+        }
+        return position;
+    }
+
+    // Same sums as calculateLocation, split by column
+    @Override
+    protected void scanParts(Piece[] position, int[] heights, int numPieces, int last, boolean mirrored, long[] parts) {
+        int numX = (numPieces / 2) + (numPieces % 2);
+        int numO = numPieces / 2;
+        int numBlanks = size - numPieces;
+        int s = size;
+        int step = mirrored ? 1 : -1;
+        boolean done = false;
+        for (int c = mirrored ? 0 : width - 1; c != last + step; c += step) {
+            long part = 0;
+            // Empty cells on top add nothing
+            s -= height - heights[c];
+            numBlanks -= height - heights[c];
+            for (int r = heights[c] - 1; r >= 0 && !done; r--) {
+                if (s == numX || s == numO || s == numBlanks) {
+                    done = true; // Only one kind of cell is left, none of which add anything
+                    break;
+                }
+                if (position[r + c * height] == Piece.BLUE) {
+                    if (numO > 0) {
+                        part += rearrange(numX, numO - 1, s - 1);
+                    }
+                    if (numBlanks > 0) {
+                        part += rearrange(numX, numO, s - 1);
+                    }
+                    numX -= 1;
+                } else {
+                    if (numBlanks > 0) {
+                        part += rearrange(numX, numO, s - 1);
+                    }
+                    numO -= 1;
+                }
+                s -= 1;
+            }
+            parts[c] = part;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package Games;
+
+import java.io.Serializable;
+
+/**
+ * Bitboard version of a Piece[] board. Bit (row + column * (height + 1)) is the square at index
+ * (row + column * height) of the Piece[], so columns are still stored bottom right first, with one
+ * always empty sentinel bit on top of every column.
+ */
+public class Position implements Serializable {
+    long current; // Pieces of the player to move
+    long mask; // Every occupied square
+    int numPieces;
+
+    public Position() {
+    }
+
+    public Position(long current, long mask, int numPieces) {
+        this.current = current;
+        this.mask = mask;
+        this.numPieces = numPieces;
+    }
+
+    public Position(Position other) {
+        this(other.current, other.mask, other.numPieces);
+    }
+
+    public long getCurrent() {
+        return current;
+    }
+
+    public long getMask() {
+        return mask;
+    }
+
+    /** Pieces of the player who made the last move */
+    public long getOpponent() {
+        return current ^ mask;
+    }
+
+    public int getNumPieces() {
+        return numPieces;
+    }
+}
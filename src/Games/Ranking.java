@@ -0,0 +1,131 @@
+package Games;
+
+import Helpers.Piece;
+
+import java.io.Serializable;
+
+/**
+ * Maps a board to its location in a DB file and back. Boards are grouped by number of pieces:
+ * offsets[n] is the first location of the boards with n pieces.
+ * The rank of a board is a sum of one part per column, scanned right to left for the board itself and
+ * left to right for its mirror image. The part of a column only depends on the column and the columns
+ * after it in scan order, so a move in column c leaves the direct parts of the columns before c and the
+ * mirrored parts of the columns after c alone, and childRank only rescans the rest.
+ */
+public abstract class Ranking implements Serializable {
+    int width;
+    int height;
+    int size;
+    long[] offsets;
+
+    Ranking(int w, int h) {
+        width = w;
+        height = h;
+        size = w * h;
+    }
+
+    /** Name of the scheme, to tell files ranked differently apart */
+    public abstract String getName();
+
+    /** Added to DB file names */
+    public abstract String getFileSuffix();
+
+    /** One more than the largest location */
+    public abstract long getNumLocations();
+
+    public abstract Piece[] unrank(long location, int numPieces, Piece[] position);
+
+    // Parts of the columns from the start of the scan to last, right to left, or left to right if mirrored
+    protected abstract void scanParts(Piece[] position, int[] heights, int numPieces, int last, boolean mirrored, long[] parts);
+
+    public long[] getOffsets() {
+        return offsets;
+    }
+
+    public long calculateLocation(Piece[] position, int numPieces) {
+        long[] parts = new long[width];
+        scanParts(position, getHeights(position), numPieces, 0, false, parts);
+        return location(numPieces, parts);
+    }
+
+    public long calculateLocationSym(Piece[] position, int numPieces) {
+        long[] parts = new long[width];
+        scanParts(position, getHeights(position), numPieces, width - 1, true, parts);
+        return location(numPieces, parts);
+    }
+
+    private int[] getHeights(Piece[] position) {
+        int[] heights = new int[width];
+        for (int c = 0; c < width; c++) {
+            while (heights[c] < height && position[heights[c] + c * height] != Piece.EMPTY) {
+                heights[c]++;
+            }
+        }
+        return heights;
+    }
+
+    /** The smaller of the location of position and of its mirror image */
+    public long calculateMinLocation(Piece[] position, int numPieces) {
+        return Math.min(calculateLocation(position, numPieces), calculateLocationSym(position, numPieces));
+    }
+
+    /** Number of pieces on the board at location, the tier whose offsets range holds it */
+    public int getNumPieces(long location) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) / 2;
+            if (offsets[mid] <= location) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    public Piece[] unrank(long location) {
+        return unrank(location, getNumPieces(location), new Piece[size]);
+    }
+
+    /**
+     * Fills direct and mirror with the per column parts of the rank of position and its mirror image.
+     * mirror can be null when only the direct rank is needed.
+     */
+    public void rank(Piece[] position, int[] heights, int numPieces, long[] direct, long[] mirror) {
+        scanParts(position, heights, numPieces, 0, false, direct);
+        if (mirror != null) {
+            scanParts(position, heights, numPieces, width - 1, true, mirror);
+        }
+    }
+
+    /**
+     * rank for the child made by a move in column, from the parts of its parent.
+     * position, heights and numPieces already include the move.
+     */
+    public void childRank(Piece[] position, int[] heights, int numPieces, int column,
+                          long[] parentDirect, long[] parentMirror, long[] direct, long[] mirror) {
+        // The direct scan goes right to left, so the columns before column see the same pieces as in the parent
+        System.arraycopy(parentDirect, 0, direct, 0, column);
+        scanParts(position, heights, numPieces, column, false, direct);
+        if (mirror != null) {
+            System.arraycopy(parentMirror, column + 1, mirror, column + 1, width - column - 1);
+            scanParts(position, heights, numPieces, column, true, mirror);
+        }
+    }
+
+    /** The smaller of the locations of position and its mirror image, using direct and mirror as scratch */
+    public long calculateMinLocation(Piece[] position, int[] heights, int numPieces, long[] direct, long[] mirror) {
+        rank(position, heights, numPieces, direct, mirror);
+        return Math.min(location(numPieces, direct), location(numPieces, mirror));
+    }
+
+    /** Location from the parts filled in by rank or childRank */
+    public long location(int numPieces, long[] parts) {
+        long location = offsets[numPieces];
+        for (long part : parts) {
+            location += part;
+        }
+        return location;
+    }
+}
@@ -0,0 +1,133 @@
+package Games;
+
+import java.io.Serializable;
+
+/**
+ * Finds win in a row on a bitboard laid out like Position, using shifts and ANDs instead of walking cells.
+ * A run of length n is found by doubling: m &= m >>> (len * shift) turns runs of len into runs of 2 * len,
+ * so any win length takes about log2(win) shifts per direction.
+ */
+public class WinDetector implements Serializable {
+    int width;
+    int height;
+    int win;
+    int stride;
+    long boardMask;
+    int[] shifts; // Only the directions a line of win can fit in
+    int[][] plan; // plan[d] is the sequence of shift amounts that finds a run of win in direction d
+    long[][] lines; // lines[bit][d] is every square within win - 1 steps of bit in direction d
+
+    public WinDetector(int w, int h, int wi) {
+        width = w;
+        height = h;
+        win = wi;
+        stride = h + 1;
+        if (w * stride > Long.SIZE) {
+            throw new IllegalArgumentException(w + "x" + h + " does not fit in a 64 bit board");
+        }
+        for (int c = 0; c < w; c++) {
+            boardMask |= ((1L << h) - 1) << (c * stride);
+        }
+        // Same conditions the Piece[] version uses to skip directions
+        int[][] directions = new int[4][];
+        int n = 0;
+        if (win <= height) {
+            directions[n++] = new int[] {1, 0};
+        }
+        if (win <= width) {
+            directions[n++] = new int[] {0, 1};
+        }
+        if (win <= width && win <= height) {
+            directions[n++] = new int[] {1, 1};
+            directions[n++] = new int[] {-1, 1};
+        }
+        shifts = new int[n];
+        plan = new int[n][];
+        lines = new long[w * stride][n];
+        for (int d = 0; d < n; d++) {
+            shifts[d] = directions[d][0] + directions[d][1] * stride;
+            plan[d] = runPlan(shifts[d]);
+            for (int c = 0; c < w; c++) {
+                for (int r = 0; r < h; r++) {
+                    long line = 0;
+                    for (int k = 1 - win; k < win; k++) {
+                        int rr = r + k * directions[d][0];
+                        int cc = c + k * directions[d][1];
+                        if (rr >= 0 && rr < h && cc >= 0 && cc < w) {
+                            line |= 1L << (rr + cc * stride);
+                        }
+                    }
+                    lines[r + c * stride][d] = line;
+                }
+            }
+        }
+    }
+
+    private int[] runPlan(int shift) {
+        int steps = 0;
+        int len = 1;
+        while (len * 2 <= win) {
+            len *= 2;
+            steps++;
+        }
+        int[] ret = new int[len < win ? steps + 1 : steps];
+        len = 1;
+        for (int i = 0; i < steps; i++) {
+            ret[i] = len * shift;
+            len *= 2;
+        }
+        if (len < win) {
+            ret[steps] = (win - len) * shift;
+        }
+        return ret;
+    }
+
+    /** True if pieces contain win in a row anywhere */
+    public boolean hasWin(long pieces) {
+        for (int d = 0; d < shifts.length; d++) {
+            if (hasRun(pieces, plan[d])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** True if pieces contain win in a row through square index, the piece that was just placed */
+    public boolean completesWin(long pieces, int index) {
+        long[] through = lines[index];
+        for (int d = 0; d < shifts.length; d++) {
+            // Any win squares out of 2 * win - 1 centered on index must include index
+            if (hasRun(pieces & through[d], plan[d])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasRun(long pieces, int[] steps) {
+        long m = pieces;
+        for (int i = 0; i < steps.length && m != 0; i++) {
+            m &= m >>> steps[i];
+        }
+        return m != 0;
+    }
+
+    /** Square of Piece[] index cell */
+    public long bit(int cell) {
+        return 1L << index(cell);
+    }
+
+    public int index(int cell) {
+        return cell % height + (cell / height) * stride;
+    }
+
+    /** Piece[] index of the single square move */
+    public int cell(long move) {
+        int b = Long.numberOfTrailingZeros(move);
+        return b % stride + (b / stride) * height;
+    }
+
+    public long getBoardMask() {
+        return boardMask;
+    }
+}
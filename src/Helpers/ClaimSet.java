@@ -0,0 +1,295 @@
+package Helpers;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Set of longs that many threads claim and release without locking, for the locations solver threads are working on.
+ * A fixed array of buckets, each a list sorted by key that is only changed by compare and set, so threads only
+ * contend when they touch the same bucket. Releasing a key first marks it by pointing its next at a marker node,
+ * which makes any insert after it fail, and then unlinks it. Whoever walks past a marked node helps unlink it.
+ * A claim is also where its claimer publishes the value it found, so a thread that finds a key claimed can wait
+ * for the value instead of giving up. A claimer that fails abandons its claims, which wakes their waiters to
+ * claim them again. A published claim is kept until the value is on disk, so the set is also
+ * the one store of solved values every thread reads before the DB, see DBWriter. Keys must not be negative.
+ */
+public class ClaimSet {
+    private static final long MARKER = -1;
+
+    /** A claimed key, and the value its claimer publishes once it has one */
+    public static final class Claim {
+        final long key;
+        volatile Claim next;
+        Claim nextPublished; // Below it on the published stack, set before it is pushed
+        long publishedAt; // System.currentTimeMillis() when it was published, for the writer's lag
+        private volatile byte value; // 0 until published
+        private volatile boolean abandoned;
+        private volatile boolean waiting;
+
+        Claim(long key, Claim next) {
+            this.key = key;
+            this.next = next;
+        }
+
+        /** The value the claimer published, 0 if it has not yet */
+        public byte peek() {
+            return value;
+        }
+
+        /**
+         * Waits until the claimer publishes a value and returns it, or returns 0 if the claimer abandons it.
+         * Blocks through ForkJoinPool.managedBlock, so a pool whose worker waits here can start another.
+         */
+        public byte await() throws InterruptedException {
+            if (value == 0 && !abandoned) {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    @Override
+                    public boolean block() throws InterruptedException {
+                        synchronized (Claim.this) {
+                            waiting = true;
+                            while (value == 0 && !abandoned) {
+                                Claim.this.wait();
+                            }
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isReleasable() {
+                        return value != 0 || abandoned;
+                    }
+                });
+            }
+            return value;
+        }
+
+        // Only takes the lock if someone is waiting, a waiter sets waiting before it checks value
+        private void publish(byte v) {
+            value = v;
+            wake();
+        }
+
+        private void abandon() {
+            abandoned = true;
+            wake();
+        }
+
+        private void wake() {
+            if (waiting) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private static final AtomicReferenceFieldUpdater<Claim, Claim> NEXT =
+            AtomicReferenceFieldUpdater.newUpdater(Claim.class, Claim.class, "next");
+
+    private final AtomicReferenceArray<Claim> buckets;
+    private final int shift; // 64 - log2 of the bucket count, so bucket takes the top bits of the hash
+    private final LongAdder published = new LongAdder(); // Claims with a value that are not released yet
+    // Claims published since the last collectPublished, linked through nextPublished, so a collect only visits them
+    private final AtomicReference<Claim> publishedStack = new AtomicReference<>();
+    private long oldestCollected; // Only read by whoever calls collectPublished
+
+    /** expected is about how many keys are claimed at once, the bucket count never changes */
+    public ClaimSet(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(16, expected) - 1) << 1;
+        buckets = new AtomicReferenceArray<>(capacity);
+        shift = Long.numberOfLeadingZeros(capacity) + 1;
+    }
+
+    /** Claims key and returns null, or returns the claim of whoever already has it */
+    public Claim claim(long key) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Key out of range " + key);
+        }
+        int b = bucket(key);
+        while (true) {
+            Claim pred = null;
+            Claim curr = buckets.get(b);
+            boolean retry = false;
+            while (curr != null) {
+                Claim succ = curr.next;
+                if (succ != null && succ.key == MARKER) {
+                    if (!casNext(b, pred, curr, succ.next)) {
+                        retry = true;
+                        break;
+                    }
+                    curr = succ.next;
+                } else if (curr.key < key) {
+                    pred = curr;
+                    curr = succ;
+                } else {
+                    break;
+                }
+            }
+            if (retry) {
+                continue;
+            }
+            if (curr != null && curr.key == key) {
+                return curr;
+            }
+            if (casNext(b, pred, curr, new Claim(key, curr))) {
+                return null;
+            }
+        }
+    }
+
+    /** Whether someone has key claimed */
+    public boolean isClaimed(long key) {
+        return find(key) != null;
+    }
+
+    /** The value published for key, 0 if it is not claimed or its claimer has not published yet */
+    public byte get(long key) {
+        Claim claim = find(key);
+        return claim == null ? 0 : claim.peek();
+    }
+
+    /** Hands value to everyone waiting on the claim of key, only its claimer may publish it */
+    public void publish(long key, byte value) {
+        Claim claim = find(key);
+        if (claim == null) {
+            throw new IllegalStateException("Published " + key + " without claiming it");
+        }
+        published.increment(); // Before the value is visible, so a release never takes the count below 0
+        claim.publishedAt = System.currentTimeMillis();
+        claim.publish(value);
+        Claim top;
+        do {
+            top = publishedStack.get();
+            claim.nextPublished = top;
+        } while (!publishedStack.compareAndSet(top, claim));
+    }
+
+    /**
+     * Gives up the claim of key when its claimer can't publish a value, releasing it and then waking everyone
+     * waiting on it, so they can claim it again. Does nothing if it is not claimed or already published, so a
+     * claimer can call it on the way out of a failed solve without checking. Only its claimer may abandon it.
+     */
+    public void abandon(long key) {
+        Claim claim = find(key);
+        if (claim == null || claim.peek() != 0) {
+            return;
+        }
+        release(key);
+        claim.abandon();
+    }
+
+    /** Claims with a value published, an estimate while values are published or released */
+    public long getPublished() {
+        return published.sum();
+    }
+
+    /**
+     * Every key published since the last call and its value, packed with LongByteMap.entry and sorted by key.
+     * Each published key is returned by exactly one call, and stays claimed until the caller releases it.
+     * Takes time in the number of keys published, not the number of buckets. Only one thread may collect.
+     */
+    public long[] collectPublished() {
+        int n = 0;
+        long oldest = System.currentTimeMillis();
+        Claim list = publishedStack.getAndSet(null);
+        for (Claim curr = list; curr != null; curr = curr.nextPublished) {
+            n++;
+        }
+        long[] entries = new long[n];
+        n = 0;
+        for (Claim curr = list; curr != null; ) {
+            entries[n++] = LongByteMap.entry(curr.key, curr.peek());
+            oldest = Math.min(oldest, curr.publishedAt);
+            Claim below = curr.nextPublished;
+            curr.nextPublished = null; // Lets released claims be collected without the ones below them
+            curr = below;
+        }
+        oldestCollected = oldest;
+        return LongByteMap.sortEntries(entries);
+    }
+
+    /** When the oldest key the last collectPublished returned was published, or when it ran if it found none */
+    public long getOldestCollected() {
+        return oldestCollected;
+    }
+
+    /**
+     * Releases a claimed key. Whoever owns the claim releases it: its claimer until it publishes, and after that
+     * whoever collected it with collectPublished, once the value is stored somewhere else. Never twice.
+     */
+    public void release(long key) {
+        int b = bucket(key);
+        while (true) {
+            Claim pred = null;
+            Claim curr = buckets.get(b);
+            boolean retry = false;
+            while (curr != null) {
+                Claim succ = curr.next;
+                if (succ != null && succ.key == MARKER) {
+                    if (!casNext(b, pred, curr, succ.next)) {
+                        retry = true;
+                        break;
+                    }
+                    curr = succ.next;
+                } else if (curr.key < key) {
+                    pred = curr;
+                    curr = succ;
+                } else {
+                    break;
+                }
+            }
+            if (retry) {
+                continue;
+            }
+            if (curr == null || curr.key != key) {
+                throw new IllegalStateException("Released " + key + " without claiming it");
+            }
+            Claim succ = curr.next;
+            if (NEXT.compareAndSet(curr, succ, new Claim(MARKER, succ))) {
+                if (curr.peek() != 0) {
+                    published.decrement();
+                }
+                casNext(b, pred, curr, succ); // Someone walking past finishes the unlink if this fails
+                return;
+            }
+        }
+    }
+
+    /** Releases everything, only while no one is claiming */
+    public void clear() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, null);
+        }
+        publishedStack.set(null);
+        published.reset();
+    }
+
+    // The unreleased claim of key, null if there is none
+    private Claim find(long key) {
+        for (Claim curr = buckets.get(bucket(key)); curr != null; ) {
+            Claim succ = curr.next;
+            if (succ != null && succ.key == MARKER) {
+                curr = succ.next;
+            } else if (curr.key < key) {
+                curr = succ;
+            } else {
+                return curr.key == key ? curr : null;
+            }
+        }
+        return null;
+    }
+
+    private boolean casNext(int b, Claim pred, Claim expect, Claim update) {
+        if (pred == null) {
+            return buckets.compareAndSet(b, expect, update);
+        }
+        return NEXT.compareAndSet(pred, expect, update);
+    }
+
+    private int bucket(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+}
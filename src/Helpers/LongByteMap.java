@@ -0,0 +1,61 @@
+package Helpers;
+
+import java.util.Arrays;
+
+/**
+ * Long keys with byte values packed into one long, (key + 1) << 8 | value, for batches of millions of solved
+ * values where boxed pairs cost about 70 bytes each. The packed form sorts by key since the key is in the high
+ * bits, and is never 0. Keys must be below 2^55.
+ */
+public class LongByteMap {
+    /** Sorts entries packed with entry by key, in place or into a new array, which is returned */
+    public static long[] sortEntries(long[] entries) {
+        long bits = 0;
+        for (long entry : entries) {
+            bits |= entry;
+        }
+        return radixSort(entries, bits);
+    }
+
+    /**
+     * LSD radix sort of the packed entries a byte at a time, linear in the number of entries.
+     * Keys are unique, so the value byte is skipped, and so are the high bytes no key uses (bits is all of them OR'ed).
+     */
+    private static long[] radixSort(long[] entries, long bits) {
+        long[] from = entries;
+        long[] to = new long[entries.length];
+        int[] counts = new int[257];
+        for (int shift = 8; shift < 64 && (bits >>> shift) != 0; shift += 8) {
+            Arrays.fill(counts, 0);
+            for (long entry : from) {
+                counts[(int) ((entry >>> shift) & 0xFF) + 1]++;
+            }
+            if (counts[(int) ((from[0] >>> shift) & 0xFF) + 1] == from.length) {
+                continue; // Every entry has the same byte here
+            }
+            for (int i = 1; i < counts.length; i++) {
+                counts[i] += counts[i - 1];
+            }
+            for (long entry : from) {
+                to[counts[(int) ((entry >>> shift) & 0xFF)]++] = entry;
+            }
+            long[] temp = from;
+            from = to;
+            to = temp;
+        }
+        return from;
+    }
+
+    /** The packed form of an entry */
+    public static long entry(long key, byte value) {
+        return (key + 1) << 8 | (value & 0xFF);
+    }
+
+    public static long key(long entry) {
+        return (entry >>> 8) - 1;
+    }
+
+    public static byte value(long entry) {
+        return (byte) entry;
+    }
+}
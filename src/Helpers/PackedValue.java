@@ -0,0 +1,92 @@
+package Helpers;
+
+/**
+ * A solved value packed in one byte, the way the solvers store it on disk: the Primitive in the top 2 bits
+ * (0 NOT_PRIMITIVE, 1 LOSS, 2 WIN, 3 TIE) and the remoteness in the low 6 bits.
+ * 0 is NOT_PRIMITIVE with remoteness 0, which is never a solved value, so it also means not solved yet.
+ */
+public final class PackedValue {
+    public static final byte NOT_PRIMITIVE = 0;
+    public static final byte PRIMITIVE_LOSS = (byte) (1 << 6);
+    public static final byte PRIMITIVE_TIE = (byte) (3 << 6);
+
+    private PackedValue() {
+    }
+
+    public static byte of(Primitive p, int remoteness) {
+        int temp;
+        switch (p) {
+            case NOT_PRIMITIVE:
+                temp = 0;
+                break;
+            case LOSS:
+                temp = 1;
+                break;
+            case WIN:
+                temp = 2;
+                break;
+            case TIE:
+                temp = 3;
+                break;
+            default:
+                throw new IllegalStateException("shouldn't happen");
+        }
+        return (byte) ((temp << 6) + remoteness);
+    }
+
+    public static Primitive value(byte b) {
+        switch (Byte.toUnsignedInt(b) >>> 6) {
+            case 0:
+                return Primitive.NOT_PRIMITIVE;
+            case 1:
+                return Primitive.LOSS;
+            case 2:
+                return Primitive.WIN;
+            case 3:
+                return Primitive.TIE;
+            default:
+                throw new IllegalStateException("two bits should only have those options");
+        }
+    }
+
+    public static int remoteness(byte b) {
+        return b & 0x3F;
+    }
+
+    /**
+     * The child the player to move would pick: the quickest LOSS for the opponent, otherwise the longest TIE,
+     * otherwise the longest WIN. NOT_PRIMITIVE loses to anything, so it can start a fold over the children.
+     */
+    public static byte better(byte a, byte b) {
+        return order(a) >= order(b) ? a : b;
+    }
+
+    private static int order(byte b) {
+        int remoteness = remoteness(b);
+        switch (Byte.toUnsignedInt(b) >>> 6) {
+            case 1:
+                return 256 - remoteness;
+            case 3:
+                return 128 + remoteness;
+            case 2:
+                return 64 + remoteness;
+            default:
+                return 0;
+        }
+    }
+
+    /** Value of a position whose best child (see better) is child */
+    public static byte parent(byte child) {
+        int remoteness = remoteness(child) + 1;
+        switch (Byte.toUnsignedInt(child) >>> 6) {
+            case 1:
+                return of(Primitive.WIN, remoteness);
+            case 2:
+                return of(Primitive.LOSS, remoteness);
+            case 3:
+                return of(Primitive.TIE, remoteness);
+            default:
+                throw new IllegalStateException("Children must be solved");
+        }
+    }
+}
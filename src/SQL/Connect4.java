@@ -2,6 +2,9 @@ package SQL;
 
 
 
+import Helpers.PackedValue;
+import Helpers.Primitive;
+
 import java.io.*;
 import java.sql.Connection;
 import java.sql.ResultSet;
@@ -11,15 +14,6 @@ import java.util.*;
 
 public class Connect4 {
 
-    public static class Tuple<X, Y> implements Serializable{
-        public final X x;
-        public final Y y;
-        public Tuple(X x, Y y) {
-            this.x = x;
-            this.y = y;
-        }
-    }
-
     public Piece[] getStartingPosition() {
         return startingPosition;
     }
@@ -80,7 +74,7 @@ public class Connect4 {
         return ret;
     }
 
-    public Tuple<Primitive, Integer> isPrimitive(Piece[] position, Piece placed) {
+    public byte isPrimitive(Piece[] position, Piece placed) {
         boolean full = true;
         for (int column = 0; column < width; column++) {
             int row = height - 1;
@@ -103,7 +97,7 @@ public class Connect4 {
                         break;
                     }
                     if (r == row - win + 1) {
-                        return new Tuple<>(Primitive.LOSS, 0);
+                        return PackedValue.PRIMITIVE_LOSS;
                     }
                 }
             }
@@ -138,7 +132,7 @@ public class Connect4 {
 //                    }
                 }
                 if (in_a_row >= win) {
-                    return new Tuple<>(Primitive.LOSS, 0);
+                    return PackedValue.PRIMITIVE_LOSS;
                 }
             }
 
@@ -161,7 +155,7 @@ public class Connect4 {
                     }
                 }
                 if (in_a_diag >= win) {
-                    return new Tuple<>(Primitive.LOSS, 0);
+                    return PackedValue.PRIMITIVE_LOSS;
                 }
             }
 
@@ -184,14 +178,14 @@ public class Connect4 {
                     }
                 }
                 if (in_a_diag >= win) {
-                    return new Tuple<>(Primitive.LOSS, 0);
+                    return PackedValue.PRIMITIVE_LOSS;
                 }
             }
         }
         if (full) {
-            return new Tuple<>(Primitive.TIE, 0);
+            return PackedValue.PRIMITIVE_TIE;
         } else {
-            return new Tuple<>(Primitive.NOT_PRIMITIVE, 0);
+            return PackedValue.NOT_PRIMITIVE;
         }
     }
 
@@ -242,10 +236,11 @@ public class Connect4 {
         }
     }
 
-    private void storeMove(long hash, Primitive p, int remote) {
+    private void storeMove(long hash, byte value) {
+        int remote = PackedValue.remoteness(value);
         try {
             Statement stmt = conn.createStatement();
-            switch(p) {
+            switch(PackedValue.value(value)) {
                 case NOT_PRIMITIVE:
                     stmt.execute(String.format("INSERT INTO memo(hash, value, remoteness) VALUES(%d, b'00', %d)", hash, remote));
                     break;
@@ -266,15 +261,15 @@ public class Connect4 {
 
     }
 
-    private Tuple<Primitive, Integer> getValue(long hash) {
+    // NOT_PRIMITIVE if hash has not been solved yet
+    private byte getValue(long hash) {
         try{
             Statement stmt = conn.createStatement();
             String query = String.format("select value, remoteness from memo where hash=%d LIMIT 1", hash);
             ResultSet rs =  stmt.executeQuery(query);
-            Primitive prim = null;
-            short remote = -1;
+            Primitive prim;
             if (!rs.next()) {
-                prim = Primitive.NOT_SOLVED;
+                return PackedValue.NOT_PRIMITIVE;
             } else {
                 switch (rs.getInt(1)) {
                     case 0:
@@ -293,9 +288,8 @@ public class Connect4 {
                         throw new IllegalStateException("didnt match");
 
                 }
-                remote = rs.getShort(2);
             }
-            return new Tuple<>(prim, (int) remote);
+            return PackedValue.of(prim, rs.getShort(2));
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -316,50 +310,28 @@ public class Connect4 {
         solve(getStartingPosition(), hash(getStartingPosition()), hash(getStartingPosition()), Piece.BLUE);
     }
 
-    private Tuple<Primitive, Integer> solve(Piece[] position, long hash, long symHash, Piece next) {
+    private byte solve(Piece[] position, long hash, long symHash, Piece next) {
         long minHash = Math.min(hash, symHash);
-        Tuple<Primitive, Integer> past = getValue(minHash);
-        if (past.x != Primitive.NOT_SOLVED) {
+        byte past = getValue(minHash);
+        if (past != PackedValue.NOT_PRIMITIVE) {
             return past;
         }
 
         Piece placed = next.opposite();
-        Tuple<Primitive, Integer> p = isPrimitive(position, placed);
-        if (p.x != Primitive.NOT_PRIMITIVE) {
-            storeMove(minHash, p.x, p.y);
+        byte p = isPrimitive(position, placed);
+        if (p != PackedValue.NOT_PRIMITIVE) {
+            storeMove(minHash, p);
             return p;
         }
         List<Integer> moves = generateMoves(position);
-        ArrayList<Tuple<Primitive, Integer>> nextPositionValues = new ArrayList<>(moves.size());
+        byte best = PackedValue.NOT_PRIMITIVE;
         for (int move : moves) {
             Piece[] newPosition = doMove(position, move, next);
-            nextPositionValues.add(solve(newPosition, addHash(hash, next, move), addHash(symHash, next, symMove(move)), placed));
-        }
-        int lossRemote = Integer.MAX_VALUE;
-        int tieRemote = -1;
-        int winRemote = -1;
-        for (Tuple<Primitive, Integer> val: nextPositionValues) {
-            if (val.x == Primitive.LOSS && val.y < lossRemote) {
-                lossRemote = val.y;
-            } else if (val.x == Primitive.TIE  && val.y > tieRemote) {
-                tieRemote = val.y;
-            } else if (val.y > winRemote){
-                winRemote = val.y;
-            }
-        }
-        if (lossRemote != Integer.MAX_VALUE) {
-            Tuple<Primitive, Integer> temp = new Tuple<>(Primitive.WIN, lossRemote + 1);
-            storeMove(minHash, temp.x, temp.y);
-            return temp;
-        } else if (tieRemote != -1) {
-            Tuple<Primitive, Integer> temp = new Tuple<>(Primitive.TIE, tieRemote + 1);
-            storeMove(minHash, temp.x, temp.y);
-            return temp;
-        } else {
-            Tuple<Primitive, Integer> temp = new Tuple<>(Primitive.LOSS, winRemote + 1);
-            storeMove(minHash, temp.x, temp.y);
-            return temp;
+            best = PackedValue.better(best, solve(newPosition, addHash(hash, next, move), addHash(symHash, next, symMove(move)), placed));
         }
+        byte value = PackedValue.parent(best);
+        storeMove(minHash, value);
+        return value;
     }
 
     private int symMove(int move) {
@@ -399,7 +371,7 @@ public class Connect4 {
 
 
     public void play() {
-        if (getValue(hash(getStartingPosition())).x == Primitive.NOT_SOLVED) {
+        if (getValue(hash(getStartingPosition())) == PackedValue.NOT_PRIMITIVE) {
             solve();
         }
         Scanner input = new Scanner(System.in);
@@ -408,9 +380,9 @@ public class Connect4 {
         Piece nextP = Piece.BLUE;
         while (true) {
             printBoard(board);
-            Tuple<Primitive, Integer> prim = isPrimitive(board, nextP.opposite());
-            if (prim.x != Primitive.NOT_PRIMITIVE) {
-                if (prim.x == Primitive.TIE) {
+            byte prim = isPrimitive(board, nextP.opposite());
+            if (prim != PackedValue.NOT_PRIMITIVE) {
+                if (PackedValue.value(prim) == Primitive.TIE) {
                     System.out.println("Tie Zobrist.Game");
 
                 } else {
@@ -425,11 +397,11 @@ public class Connect4 {
                 }
                 break;
             }
-            Tuple<Primitive, Integer> should = getValue(hash(board));
-            System.out.println(should.x);
-            if (should.x == Primitive.TIE) {
+            byte should = getValue(hash(board));
+            System.out.println(PackedValue.value(should));
+            if (PackedValue.value(should) == Primitive.TIE) {
                 System.out.println("Zobrist.Game should Tie");
-            } else if (should.x == Primitive.WIN) {
+            } else if (PackedValue.value(should) == Primitive.WIN) {
                 switch(nextP) {
                     case BLUE:
                         System.out.println("O should win");
@@ -452,7 +424,7 @@ public class Connect4 {
             if (nextP == Piece.RED) {
                 List<Integer> moves = generateMoves(board);
                 Collections.shuffle(moves);
-                ArrayList<Tuple<Primitive, Integer>> nextPositionValues = new ArrayList<>(moves.size());
+                List<Byte> nextPositionValues = new ArrayList<>(moves.size());
                 for (int move : moves) {
                     Piece[] newPosition = doMove(board, move, nextP);
                     nextPositionValues.add(getValue(hash(newPosition)));
@@ -463,22 +435,22 @@ public class Connect4 {
                 Primitive curPrim = Primitive.WIN;
                 int tempMove = -1;
                 for (int i = 0; i < nextPositionValues.size(); i++) {
-                    Tuple<Primitive, Integer> val = nextPositionValues.get(i);
-                    if (val.x == Primitive.LOSS && val.y <= lossRemote) {
-                        if (!(lossRemote == val.y && rand.nextBoolean())) {
-                            lossRemote = val.y;
+                    byte val = nextPositionValues.get(i);
+                    if (PackedValue.value(val) == Primitive.LOSS && PackedValue.remoteness(val) <= lossRemote) {
+                        if (!(lossRemote == PackedValue.remoteness(val) && rand.nextBoolean())) {
+                            lossRemote = PackedValue.remoteness(val);
                         }
                         curPrim = Primitive.LOSS;
                         tempMove = moves.get(i);
-                    } else if (curPrim != Primitive.LOSS && val.x == Primitive.TIE  && val.y >= tieRemote) {
-                        if (!(tieRemote == val.y && rand.nextBoolean())) {
-                            tieRemote = val.y;
+                    } else if (curPrim != Primitive.LOSS && PackedValue.value(val) == Primitive.TIE  && PackedValue.remoteness(val) >= tieRemote) {
+                        if (!(tieRemote == PackedValue.remoteness(val) && rand.nextBoolean())) {
+                            tieRemote = PackedValue.remoteness(val);
                         }
                         curPrim = Primitive.TIE;
                         tempMove = moves.get(i);
-                    } else if ((curPrim == Primitive.WIN) && val.y >= winRemote){
-                        if (!(winRemote == val.y && rand.nextBoolean())) {
-                            winRemote = val.y;
+                    } else if ((curPrim == Primitive.WIN) && PackedValue.remoteness(val) >= winRemote){
+                        if (!(winRemote == PackedValue.remoteness(val) && rand.nextBoolean())) {
+                            winRemote = PackedValue.remoteness(val);
                         }
                         curPrim = Primitive.WIN;
                         tempMove = moves.get(i);
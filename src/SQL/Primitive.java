@@ -1,9 +0,0 @@
-package SQL;
-
-public enum Primitive {
-    NOT_PRIMITIVE,
-    WIN,
-    LOSS,
-    TIE,
-    NOT_SOLVED
-}
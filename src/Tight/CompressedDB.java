@@ -0,0 +1,229 @@
+package Tight;
+
+import Helpers.PackedValue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A finished PackedValue DB, read only, in deflated blocks of 2^BLOCK_BITS locations, for serving many DBs at once
+ * from less disk and page cache. After the DBHeader come the block bits, the number of blocks and an index of
+ * where each block starts, so any location is one index lookup and at most one block to inflate away.
+ * A block with nothing solved takes no space, and one that does not shrink is stored as is.
+ * Inflated blocks are kept in a small direct mapped cache. A reader is not thread safe, use one per thread like PageCache.
+ */
+public class CompressedDB {
+    public static final String SUFFIX = "_compressed";
+    static final int BLOCK_BITS = 16;
+    static final int CACHE_BLOCKS = 256;
+    private static final int INDEX_BATCH = 4096;
+
+    private final FileChannel channel;
+    private final DBHeader header;
+    private final int blockBits;
+    private final long numBlocks;
+    private final MappedByteBuffer[] index; // numBlocks + 1 file positions, block i is from index i to index i + 1
+    private final Inflater inflater = new Inflater();
+    private final byte[] compressed;
+    private final byte[][] frames;
+    private final long[] frameBlock; // -1 for a free frame
+    long hits;
+    long misses;
+
+    /** Opens the export of the DB file fileName described by its own header, no Ranking needed */
+    public CompressedDB(String fileName) throws IOException {
+        this(fileName, DBHeader.read(fileName + SUFFIX));
+    }
+
+    /** Opens the export of the DB file fileName, which was written with header */
+    public CompressedDB(String fileName, DBHeader header) throws IOException {
+        channel = FileChannel.open(Paths.get(fileName + SUFFIX), READ);
+        DBHeader found = DBHeader.read(channel);
+        if (found == null) {
+            throw new IllegalStateException(fileName + SUFFIX + " has no header, it was not finished exporting");
+        }
+        this.header = header.withEncoding(DBHeader.ENCODING_COMPRESSED);
+        found.check(this.header);
+        ByteBuffer buf = ByteBuffer.allocate(16);
+        read(buf, found.getBodyOffset());
+        buf.flip();
+        blockBits = buf.getInt();
+        buf.getInt();
+        numBlocks = buf.getLong();
+        long indexBytes = (numBlocks + 1) * 8;
+        index = new MappedByteBuffer[(int) ((indexBytes + MappedDB.SEGMENT_SIZE - 1) >>> MappedDB.SEGMENT_BITS)];
+        for (int i = 0; i < index.length; i++) {
+            long start = i * MappedDB.SEGMENT_SIZE;
+            index[i] = channel.map(FileChannel.MapMode.READ_ONLY, found.getBodyOffset() + 16 + start, Math.min(MappedDB.SEGMENT_SIZE, indexBytes - start));
+        }
+        compressed = new byte[1 << blockBits];
+        frames = new byte[CACHE_BLOCKS][1 << blockBits];
+        frameBlock = new long[CACHE_BLOCKS];
+        Arrays.fill(frameBlock, -1);
+    }
+
+    /** The PackedValue at location, NOT_PRIMITIVE if it was not solved */
+    public byte get(long location) throws IOException {
+        long block = location >>> blockBits;
+        int frame = (int) (block & (CACHE_BLOCKS - 1));
+        if (frameBlock[frame] != block) {
+            long start = indexEntry(block);
+            int length = (int) (indexEntry(block + 1) - start);
+            if (length == 0) {
+                return PackedValue.NOT_PRIMITIVE;
+            }
+            load(frame, block, start, length);
+        } else {
+            hits++;
+        }
+        return frames[frame][(int) (location & ((1 << blockBits) - 1))];
+    }
+
+    public DBHeader getHeader() {
+        return header;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+
+    private long indexEntry(long i) {
+        long position = i * 8;
+        return index[(int) (position >>> MappedDB.SEGMENT_BITS)].getLong((int) (position & (MappedDB.SEGMENT_SIZE - 1)));
+    }
+
+    private void load(int frame, long block, long start, int length) throws IOException {
+        misses++;
+        int blockLength = (int) Math.min(1L << blockBits, header.getNumLocations() - (block << blockBits));
+        byte[] data = frames[frame];
+        if (length == blockLength) {
+            read(ByteBuffer.wrap(data, 0, length), start);
+        } else {
+            read(ByteBuffer.wrap(compressed, 0, length), start);
+            inflater.reset();
+            inflater.setInput(compressed, 0, length);
+            try {
+                if (inflater.inflate(data, 0, blockLength) != blockLength) {
+                    throw new IllegalStateException("Block " + block + " is corrupt");
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Block " + block + " is corrupt");
+            }
+        }
+        frameBlock[frame] = block;
+    }
+
+    private void read(ByteBuffer buf, long position) throws IOException {
+        int start = buf.position();
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position() - start) < 0) {
+                throw new IllegalStateException("Compressed DB is too short");
+            }
+        }
+    }
+
+    /**
+     * Writes the PackedValue DB open on source, described by header, to fileName + SUFFIX.
+     * The header is written last, so an export cut short is not mistaken for a finished one.
+     */
+    public static void export(FileChannel source, DBHeader header, String fileName) throws IOException {
+        DBHeader out = header.withEncoding(DBHeader.ENCODING_COMPRESSED);
+        long numLocations = header.getNumLocations();
+        int blockSize = 1 << BLOCK_BITS;
+        long numBlocks = (numLocations + blockSize - 1) >>> BLOCK_BITS;
+        long indexStart = out.getBodyOffset() + 16;
+        long position = indexStart + (numBlocks + 1) * 8; // Where the next block goes
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName + SUFFIX), CREATE, TRUNCATE_EXISTING, WRITE)) {
+            ByteBuffer buf = ByteBuffer.allocate(16);
+            buf.putInt(BLOCK_BITS);
+            buf.putInt(0);
+            buf.putLong(numBlocks);
+            buf.flip();
+            write(channel, buf, out.getBodyOffset());
+            ByteBuffer in = ByteBuffer.allocate(blockSize);
+            byte[] deflated = new byte[blockSize];
+            ByteBuffer indexBuf = ByteBuffer.allocate(INDEX_BATCH * 8);
+            long indexPosition = indexStart;
+            for (long block = 0; block <= numBlocks; block++) {
+                indexBuf.putLong(position);
+                if (!indexBuf.hasRemaining() || block == numBlocks) {
+                    indexBuf.flip();
+                    write(channel, indexBuf, indexPosition);
+                    indexPosition += indexBuf.limit();
+                    indexBuf.clear();
+                }
+                if (block == numBlocks) {
+                    break;
+                }
+                int length = (int) Math.min(blockSize, numLocations - (block << BLOCK_BITS));
+                in.clear();
+                in.limit(length);
+                while (in.hasRemaining()) {
+                    if (source.read(in, header.getBodyOffset() + (block << BLOCK_BITS) + in.position()) < 0) {
+                        break;
+                    }
+                }
+                // Past the end of a sparse file is unsolved
+                while (in.hasRemaining()) {
+                    in.put(PackedValue.NOT_PRIMITIVE);
+                }
+                if (isEmpty(in.array(), length)) {
+                    continue;
+                }
+                deflater.reset();
+                deflater.setInput(in.array(), 0, length);
+                deflater.finish();
+                int size = deflater.deflate(deflated, 0, length);
+                ByteBuffer stored;
+                if (deflater.finished() && size < length) {
+                    stored = ByteBuffer.wrap(deflated, 0, size);
+                } else {
+                    stored = ByteBuffer.wrap(in.array(), 0, length);
+                }
+                int storedLength = stored.remaining();
+                write(channel, stored, position);
+                position += storedLength;
+            }
+            channel.force(false);
+            out.write(channel);
+            channel.force(false);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static boolean isEmpty(byte[] data, int length) {
+        for (int i = 0; i < length; i++) {
+            if (data[i] != PackedValue.NOT_PRIMITIVE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        int start = buf.position();
+        while (buf.hasRemaining()) {
+            channel.write(buf, position + buf.position() - start);
+        }
+    }
+}
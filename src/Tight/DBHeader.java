@@ -0,0 +1,257 @@
+package Tight;
+
+import Games.GravityRanker;
+import Games.MultinomialRanker;
+import Games.Ranking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * The first block of a DB file: what game it solves, how values are encoded, how boards map to locations,
+ * where each tier starts and which tiers are completely solved. The values start at bodyOffset.
+ * Files from before the header start straight with values. The magic can't be mistaken for those, since
+ * its second byte would be a NOT_PRIMITIVE with remoteness, which is never stored, so they are read as legacy
+ * files with the body at 0.
+ * A file with a header can be opened from it alone, without building a Ranking, see read(String).
+ */
+public class DBHeader {
+    static final int MAGIC = 0x43344442; // "C4DB"
+    static final int VERSION = 1;
+    static final int BLOCK = 4096;
+    public static final byte ENCODING_PACKED_BYTE = 1; // One PackedValue byte per location
+    public static final byte ENCODING_VALUE_2BIT = 2; // The Primitive bits of a PackedValue, 4 locations a byte, see ValueDB
+    public static final byte ENCODING_REMOTENESS = 3; // The remoteness bits of a PackedValue, one byte per location
+    public static final byte ENCODING_COMPRESSED = 4; // PackedValue bytes in deflated blocks, see CompressedDB
+
+    int width;
+    int height;
+    int win;
+    byte encoding;
+    String ranking;
+    boolean canonical; // A board and its mirror image share the smaller of their locations
+    long[] offsets;
+    long numLocations;
+    // Bit n is set once every board with n pieces is solved. The solvers solve depth first, so no tier finishes before
+    // the others and they only ever set every bit at once, with setAllComplete
+    long tierComplete;
+    long bodyOffset;
+    boolean legacy;
+
+    public DBHeader(int width, int height, int win, byte encoding, Ranking ranker, boolean canonical) {
+        this.width = width;
+        this.height = height;
+        this.win = win;
+        this.encoding = encoding;
+        this.ranking = ranker.getName();
+        this.canonical = canonical;
+        this.offsets = ranker.getOffsets().clone();
+        this.numLocations = ranker.getNumLocations();
+        this.bodyOffset = BLOCK;
+    }
+
+    private DBHeader() {
+    }
+
+    /**
+     * The header of the file channel is open on, after checking it describes the same DB as expected.
+     * An empty file gets expected written to it, and a legacy file is described by expected with its body at 0.
+     */
+    public static DBHeader open(FileChannel channel, DBHeader expected) throws IOException {
+        if (channel.size() == 0) {
+            expected.write(channel);
+            return expected;
+        }
+        DBHeader header = read(channel);
+        if (header == null) {
+            DBHeader legacy = expected.copy();
+            legacy.bodyOffset = 0;
+            legacy.legacy = true;
+            return legacy;
+        }
+        header.check(expected);
+        return header;
+    }
+
+    /** Throws if this header does not describe the same DB as expected */
+    public void check(DBHeader expected) {
+        if (width != expected.width || height != expected.height || win != expected.win
+                || encoding != expected.encoding || !ranking.equals(expected.ranking)
+                || canonical != expected.canonical || !Arrays.equals(offsets, expected.offsets)) {
+            throw new IllegalStateException("DB file was written for a different game or format: " + this);
+        }
+    }
+
+    /** The header of the file fileName, which must have one since a legacy file can't describe itself */
+    public static DBHeader read(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), READ)) {
+            DBHeader header = read(channel);
+            if (header == null) {
+                throw new IllegalStateException(fileName + " has no header, open it with the header it was written with");
+            }
+            return header;
+        }
+    }
+
+    /** The header at the start of the channel, null for a legacy file with no header */
+    public static DBHeader read(FileChannel channel) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(channel.size(), BLOCK));
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, buf.position()) < 0) {
+                break;
+            }
+        }
+        buf.flip();
+        if (buf.remaining() < 8 || buf.getInt() != MAGIC) {
+            return null;
+        }
+        int version = buf.getInt();
+        if (version != VERSION) {
+            throw new IllegalStateException("Unknown DB version " + version);
+        }
+        DBHeader header = new DBHeader();
+        header.width = buf.getInt();
+        header.height = buf.getInt();
+        header.win = buf.getInt();
+        header.encoding = buf.get();
+        header.canonical = buf.get() != 0;
+        byte[] name = new byte[buf.getShort()];
+        buf.get(name);
+        header.ranking = new String(name, StandardCharsets.US_ASCII);
+        header.offsets = new long[buf.getInt()];
+        for (int i = 0; i < header.offsets.length; i++) {
+            header.offsets[i] = buf.getLong();
+        }
+        header.numLocations = buf.getLong();
+        header.tierComplete = buf.getLong();
+        header.bodyOffset = buf.getLong();
+        return header;
+    }
+
+    /** Writes the header at the start of the channel, a legacy file has no room for one */
+    public void write(FileChannel channel) throws IOException {
+        if (legacy) {
+            return;
+        }
+        byte[] name = ranking.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buf = ByteBuffer.allocate(BLOCK);
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putInt(width);
+        buf.putInt(height);
+        buf.putInt(win);
+        buf.put(encoding);
+        buf.put((byte) (canonical ? 1 : 0));
+        buf.putShort((short) name.length);
+        buf.put(name);
+        buf.putInt(offsets.length);
+        for (long offset : offsets) {
+            buf.putLong(offset);
+        }
+        buf.putLong(numLocations);
+        buf.putLong(tierComplete);
+        buf.putLong(bodyOffset);
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf, buf.position());
+        }
+    }
+
+    public boolean isTierComplete(int numPieces) {
+        return (tierComplete & (1L << numPieces)) != 0;
+    }
+
+    public void setTierComplete(int numPieces) {
+        tierComplete |= 1L << numPieces;
+    }
+
+    /** Marks every tier complete, once the whole game has been solved from the empty board */
+    public void setAllComplete() {
+        for (int n = 0; n < offsets.length; n++) {
+            setTierComplete(n);
+        }
+    }
+
+    /** The Ranking the DB was written with, only needed to find the location of a board */
+    public Ranking getRanker() {
+        Ranking ranker;
+        if (ranking.equals("gravity")) {
+            ranker = GravityRanker.of(width, height);
+        } else if (ranking.equals("multinomial")) {
+            ranker = MultinomialRanker.of(width, height);
+        } else {
+            throw new IllegalStateException("Unknown ranking " + ranking);
+        }
+        if (!Arrays.equals(ranker.getOffsets(), offsets)) {
+            throw new IllegalStateException("DB file was written with a different " + ranking + " ranking: " + this);
+        }
+        return ranker;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getWin() {
+        return win;
+    }
+
+    public byte getEncoding() {
+        return encoding;
+    }
+
+    public boolean isCanonical() {
+        return canonical;
+    }
+
+    public long[] getOffsets() {
+        return offsets;
+    }
+
+    public long getNumLocations() {
+        return numLocations;
+    }
+
+    public long getBodyOffset() {
+        return bodyOffset;
+    }
+
+    /** The header of the same DB stored with another encoding in its own file, tiers complete included */
+    public DBHeader withEncoding(byte encoding) {
+        DBHeader ret = copy();
+        ret.encoding = encoding;
+        ret.bodyOffset = BLOCK;
+        return ret;
+    }
+
+    private DBHeader copy() {
+        DBHeader ret = new DBHeader();
+        ret.width = width;
+        ret.height = height;
+        ret.win = win;
+        ret.encoding = encoding;
+        ret.ranking = ranking;
+        ret.canonical = canonical;
+        ret.offsets = offsets;
+        ret.numLocations = numLocations;
+        ret.tierComplete = tierComplete;
+        ret.bodyOffset = bodyOffset;
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + " win " + win + " encoding " + encoding + " ranking " + ranking
+                + (canonical ? " canonical" : "") + " tiers complete " + Long.toBinaryString(tierComplete);
+    }
+}
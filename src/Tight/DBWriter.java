@@ -0,0 +1,256 @@
+package Tight;
+
+import Helpers.LongByteMap;
+import Helpers.PackedValue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * The one thread that writes solved values to a SolverSeekable DB file. Solvers publish what they solve to
+ * their claims in sharedVars.solving, the one store of values not on disk yet that every thread reads, and the
+ * writer spills it in the background. A spill starts once spillAt values are published, a flush is asked for or a
+ * checkpoint is due, collects every published value, writes them as runs of nearby locations (see MAX_GAP) and
+ * releases their claims. Solvers only block when storeLimit values are waiting, and being the only writer lets
+ * a run fill its gaps from the file without locking.
+ * If a write fails the writer stops, and flush and awaitRoom throw its error from then on, so no solver takes
+ * values that never reached the disk for a finished DB.
+ */
+public class DBWriter extends Thread {
+    static final int MAX_GAP = 512; // Locations this close together are written back as one run
+    static final int MAX_RUN = 1 << 20;
+    static final long WAIT_MILLIS = 100; // How long the writer sleeps between checks of the store
+    static long spillAt = 1 << 21; // Published values that start a spill
+    static long storeLimit = 1 << 23; // Published values past which solvers wait, about 40 bytes each in ClaimSet
+    // How often the writer makes progress durable, at the cost of an fsync and saving the solved bitmap
+    static long checkpointMillis = 10 * 60 * 1000;
+
+    private final FileChannel channel;
+    private final long base; // File position of location 0
+    private final ParallelRunner.SharedVars sharedVars;
+    private final String checkpointFile; // Where the solved bitmap is saved
+    private final ByteBuffer run = ByteBuffer.allocateDirect(MAX_RUN);
+    private long lastCheckpoint = System.currentTimeMillis();
+    private long flushesAsked; // Guarded by this, like flushesDone
+    private long flushesDone;
+    private volatile IOException failure; // Why the writer stopped, null while it is running
+    private boolean closing; // Guarded by this
+    // Metrics
+    private volatile long valuesWritten;
+    private volatile long runsWritten;
+    private volatile long spills;
+    private volatile long lastSpill;
+    private volatile long maxSpill;
+    private volatile long lastLag;
+    private volatile long maxLag;
+    private volatile long writeMillis;
+
+    public DBWriter(Path path, long base, ParallelRunner.SharedVars sharedVars, String checkpointFile) throws IOException {
+        super("DBWriter");
+        setDaemon(true);
+        channel = FileChannel.open(path, READ, WRITE);
+        this.base = base;
+        this.sharedVars = sharedVars;
+        this.checkpointFile = checkpointFile;
+    }
+
+    /** Waits until everything published before the call is on disk and saved in a checkpoint */
+    public void flush() throws InterruptedException, IOException {
+        synchronized (this) {
+            if (closing) {
+                throw new IllegalStateException("DBWriter is closed");
+            }
+            long asked = ++flushesAsked;
+            notifyAll();
+            while (flushesDone < asked) {
+                checkFailure();
+                wait();
+            }
+        }
+    }
+
+    /**
+     * Blocks while storeLimit or more values are waiting to be written. Blocks through ForkJoinPool.managedBlock,
+     * so a pool whose worker waits here can start another.
+     */
+    public void awaitRoom() throws InterruptedException, IOException {
+        checkFailure();
+        if (sharedVars.solving.getPublished() < storeLimit) {
+            return;
+        }
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+            @Override
+            public boolean block() throws InterruptedException {
+                synchronized (DBWriter.this) {
+                    DBWriter.this.notifyAll();
+                    while (!isReleasable()) {
+                        DBWriter.this.wait(WAIT_MILLIS);
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                return failure != null || sharedVars.solving.getPublished() < storeLimit;
+            }
+        });
+        checkFailure();
+    }
+
+    /** Writes everything published, then stops the writer and closes the file. flush fails from then on */
+    public void close() throws InterruptedException, IOException {
+        try {
+            flush();
+        } finally {
+            synchronized (this) {
+                closing = true;
+                notifyAll();
+            }
+            join();
+            channel.close();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("DBWriter stopped after a failed write", failure);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            long asked;
+            try {
+                synchronized (this) {
+                    while (!closing && flushesAsked == flushesDone && sharedVars.solving.getPublished() < spillAt && !checkpointDue()) {
+                        wait(WAIT_MILLIS);
+                    }
+                    if (closing) {
+                        return; // close flushed everything first
+                    }
+                    asked = flushesAsked;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            boolean checkpoint = asked != flushesDone || checkpointDue();
+            long t = System.currentTimeMillis();
+            try {
+                long[] entries = sharedVars.solving.collectPublished();
+                write(entries);
+                if (entries.length > 0) {
+                    lastLag = System.currentTimeMillis() - sharedVars.solving.getOldestCollected();
+                    maxLag = Math.max(maxLag, lastLag);
+                }
+                if (checkpoint) {
+                    // Values are durable before the bitmap that points at them
+                    channel.force(false);
+                    sharedVars.solved.save(checkpointFile);
+                    lastCheckpoint = System.currentTimeMillis();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                // flushesDone stays put, so nothing waiting takes this spill for written
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            long now = System.currentTimeMillis();
+            writeMillis += now - t;
+            lastSpill = now - t;
+            maxSpill = Math.max(maxSpill, lastSpill);
+            spills++;
+            synchronized (this) {
+                flushesDone = asked;
+                notifyAll();
+            }
+        }
+    }
+
+    private boolean checkpointDue() {
+        return System.currentTimeMillis() - lastCheckpoint > checkpointMillis;
+    }
+
+    // Bumps sharedVars.generation once the file has the new values, see PageCache
+    private void write(long[] entries) throws IOException {
+        int start = 0;
+        while (start < entries.length) {
+            long first = LongByteMap.key(entries[start]);
+            int end = start + 1;
+            while (end < entries.length && LongByteMap.key(entries[end]) - LongByteMap.key(entries[end - 1]) <= MAX_GAP
+                    && LongByteMap.key(entries[end]) - first < MAX_RUN) {
+                end++;
+            }
+            int length = (int) (LongByteMap.key(entries[end - 1]) - first + 1);
+            run.clear();
+            run.limit(length);
+            if (length != end - start) {
+                // Fill the gaps with what is on disk, past the end of the file is still unsolved
+                while (run.hasRemaining()) {
+                    if (channel.read(run, base + first + run.position()) < 0) {
+                        break;
+                    }
+                }
+                while (run.hasRemaining()) {
+                    run.put(PackedValue.NOT_PRIMITIVE);
+                }
+            }
+            for (int i = start; i < end; i++) {
+                run.put((int) (LongByteMap.key(entries[i]) - first), LongByteMap.value(entries[i]));
+            }
+            run.position(0);
+            while (run.hasRemaining()) {
+                channel.write(run, base + first + run.position());
+            }
+            for (int i = start; i < end; i++) {
+                sharedVars.solved.markSolved(LongByteMap.key(entries[i]));
+            }
+            runsWritten++;
+            start = end;
+        }
+        valuesWritten += entries.length;
+        sharedVars.generation++; // Zeros any thread has cached may have been solved now
+        for (long entry : entries) {
+            sharedVars.solving.release(LongByteMap.key(entry));
+        }
+    }
+
+    /** Values published and not written yet */
+    public long getQueuedValues() {
+        return sharedVars.solving.getPublished();
+    }
+
+    /** Milliseconds the last spill took */
+    public long getLastSpill() {
+        return lastSpill;
+    }
+
+    public long getMaxSpill() {
+        return maxSpill;
+    }
+
+    /** Milliseconds from publish to written for the oldest value of the last spill */
+    public long getLastLag() {
+        return lastLag;
+    }
+
+    public long getMaxLag() {
+        return maxLag;
+    }
+
+    public String getStats() {
+        return "writer wrote " + valuesWritten + " values in " + runsWritten + " runs from " + spills
+                + " spills in " + (double) writeMillis / 1000 + "s, waiting " + getQueuedValues() + " values, spill "
+                + lastSpill + "ms max " + maxSpill + "ms, lag " + lastLag + "ms max " + maxLag + "ms";
+    }
+}
@@ -0,0 +1,223 @@
+package Tight;
+
+import Games.Connect4;
+import Games.GravityRanker;
+import Games.Ranking;
+import Helpers.ClaimSet;
+import Helpers.PackedValue;
+import Helpers.Piece;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Solves a SolverSeekable DB with a ForkJoinPool instead of one thread per first move. Boards with fewer than
+ * forkPieces pieces fork a task for each child and join them, so idle workers steal whatever is left, and
+ * boards with forkPieces pieces are solved by one worker with the sequential SolverSeekable solve.
+ * Every worker has its own SolverSeekable for its board and read cache, all sharing one SharedVars, so results are
+ * shared through the claims and the DB like with ParallelRunner.
+ * A task only joins its own children. A board reached by two move orders above forkPieces is solved by both tasks
+ * and stored by whichever claims it, since joining a task another worker is running further down its stack can
+ * deadlock. Sequential solves wait on claims, but only on ones other sequential solves hold, which never join.
+ */
+public class ForkJoinRunner {
+
+    /** Usage: w h win [threads | scale], scale solves again with 1, 2, 4 ... up to every core, deleting the DB first */
+    public static void main(String[] args) {
+        int w = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int h = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int win = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int n = Runtime.getRuntime().availableProcessors();
+        if (args.length > 3 && args[3].equals("scale")) {
+            scalingReport(w, h, win, n);
+            return;
+        }
+        if (args.length > 3) {
+            n = Integer.parseInt(args[3]);
+        }
+        System.out.println(n + " Threads");
+        long start = System.currentTimeMillis();
+        ForkJoinRunner runner = new ForkJoinRunner(w, h, win, new ParallelRunner.SharedVars(), n);
+        runner.solve();
+        System.out.println("Total Time taken : " + (((double) System.currentTimeMillis() - start) / 1000));
+        System.out.println(runner.sharedVars.writer.getStats());
+        runner.topLevel.play();
+        runner.close();
+    }
+
+    /** Times a solve from an empty DB with 1, 2, 4 ... threads up to maxThreads */
+    public static void scalingReport(int w, int h, int win, int maxThreads) {
+        List<Integer> counts = new ArrayList<>();
+        for (int n = 1; n < maxThreads; n *= 2) {
+            counts.add(n);
+        }
+        counts.add(maxThreads);
+        double base = 0;
+        StringBuilder report = new StringBuilder("threads\tseconds\tspeedup\tefficiency\n");
+        for (int n : counts) {
+            ParallelRunner.SharedVars sharedVars = new ParallelRunner.SharedVars();
+            ForkJoinRunner runner = new ForkJoinRunner(w, h, win, sharedVars, n, FORK_PIECES, true);
+            long start = System.currentTimeMillis();
+            runner.solve();
+            double seconds = (double) (System.currentTimeMillis() - start) / 1000;
+            runner.close();
+            if (n == 1) {
+                base = seconds;
+            }
+            report.append(String.format("%d\t%.3f\t%.2f\t%.2f%n", n, seconds, base / seconds, base / seconds / n));
+        }
+        System.out.print(report);
+    }
+
+    static final int FORK_PIECES = 6;
+
+    int width;
+    int height;
+    int win;
+    int forkPieces; // Boards with fewer pieces fork their children
+    Connect4 game;
+    Ranking ranker;
+    ParallelRunner.SharedVars sharedVars;
+    ForkJoinPool pool;
+    SolverSeekable topLevel; // The main thread's solver, which also sets up sharedVars
+    private final ThreadLocal<SolverSeekable> solvers = new ThreadLocal<>();
+    private final Queue<SolverSeekable> allSolvers = new ConcurrentLinkedQueue<>(); // To close them
+
+    public ForkJoinRunner(int w, int h, int wi, ParallelRunner.SharedVars shared, int threads) {
+        this(w, h, wi, shared, threads, FORK_PIECES, false);
+    }
+
+    /** fresh deletes the DB and its solved bitmap first, so the solve starts from nothing */
+    public ForkJoinRunner(int w, int h, int wi, ParallelRunner.SharedVars shared, int threads, int forkPieces, boolean fresh) {
+        width = w;
+        height = h;
+        win = wi;
+        this.forkPieces = forkPieces;
+        sharedVars = shared;
+        game = new Connect4(w, h, wi);
+        ranker = GravityRanker.of(w, h);
+        if (fresh) {
+            String fileName = "connect4_by_" + w + "_by_" + h + "_win_" + wi + "_sparse" + ranker.getFileSuffix();
+            new File(fileName).delete();
+            new File(fileName + ".solved").delete();
+        }
+        topLevel = new SolverSeekable(w, h, wi, sharedVars);
+        pool = new ForkJoinPool(threads);
+    }
+
+    public void solve() {
+        Piece[] start = new Piece[width * height];
+        Arrays.fill(start, Piece.EMPTY);
+        pool.invoke(new SolveTask(start, 0, -1));
+        // Every task has been joined, so everything solved is published and one flush writes it all
+        topLevel.finish();
+        topLevel.markComplete();
+    }
+
+    /** Shuts the pool down and closes every solver and the writer, the runner can't be used after */
+    public void close() {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            sharedVars.writer.close();
+        } catch (InterruptedException | IOException e) {
+            e.printStackTrace();
+        }
+        for (SolverSeekable solver : allSolvers) {
+            solver.close();
+        }
+        topLevel.close();
+    }
+
+    // The calling worker's solver, made the first time it runs a task
+    private SolverSeekable solver() {
+        SolverSeekable solver = solvers.get();
+        if (solver == null) {
+            solver = new SolverSeekable(width, height, win, sharedVars);
+            solvers.set(solver);
+            allSolvers.add(solver);
+        }
+        return solver;
+    }
+
+    class SolveTask extends RecursiveTask<Byte> {
+        final Piece[] board;
+        final int numPieces;
+        final int last; // Piece[] index of the move that made board, -1 for none
+
+        SolveTask(Piece[] board, int numPieces, int last) {
+            this.board = board;
+            this.numPieces = numPieces;
+            this.last = last;
+        }
+
+        @Override
+        protected Byte compute() {
+            SolverSeekable solver = solver();
+            if (numPieces >= forkPieces) {
+                return solver.solveFrom(board, numPieces, last);
+            }
+            long location = ranker.calculateMinLocation(board, numPieces);
+            byte solved = solver.getValue(location);
+            if (solved != PackedValue.NOT_PRIMITIVE) {
+                return solved;
+            }
+            // Another task has it, but waiting for it could deadlock, so solve it again unless it is done
+            ClaimSet.Claim other = sharedVars.solving.claim(location);
+            if (other != null && other.peek() != PackedValue.NOT_PRIMITIVE) {
+                return other.peek();
+            }
+            boolean stored = false;
+            try {
+                byte value = solveChildren(solver, location, other == null);
+                stored = true;
+                return value;
+            } finally {
+                if (other == null && !stored) {
+                    sharedVars.solving.abandon(location);
+                }
+            }
+        }
+
+        // Solves board by forking its children, and stores it if this task claimed it
+        private byte solveChildren(SolverSeekable solver, long location, boolean claimed) {
+            byte p = game.isPrimitive(game.toBitboard(board), last);
+            if (p != PackedValue.NOT_PRIMITIVE) {
+                if (claimed) {
+                    solver.store(location, p);
+                }
+                return p;
+            }
+            Piece next = numPieces % 2 == 0 ? Piece.BLUE : Piece.RED;
+            int[] heights = game.getHeights(board);
+            List<SolveTask> children = new ArrayList<>(width);
+            for (int c = 0; c < width; c++) {
+                if (heights[c] == height) {
+                    continue;
+                }
+                int cell = heights[c] + c * height;
+                Piece[] child = game.doMove(board, cell, next);
+                SolveTask task = new SolveTask(child, numPieces + 1, cell);
+                task.fork();
+                children.add(task);
+            }
+            byte best = PackedValue.NOT_PRIMITIVE;
+            for (int i = children.size() - 1; i >= 0; i--) {
+                best = PackedValue.better(best, children.get(i).join());
+            }
+            byte value = PackedValue.parent(best);
+            if (claimed) {
+                solver.store(location, value);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package Tight;
+
+import Helpers.PackedValue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A DB file of one byte per location, mapped into memory so reads and writes are plain array accesses.
+ * A single mapping can be at most 2 GB, so the file is mapped in SEGMENT_SIZE pieces.
+ * The file starts with a DBHeader and is grown with zeros to hold every location, and 0 is the NOT_PRIMITIVE
+ * an unsolved location reads as. A finished DB can also be mapped read only from its header alone.
+ */
+public class MappedDB {
+    static final int SEGMENT_BITS = 30;
+    static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer[] segments;
+    private final long length;
+    private final DBHeader header;
+    private final boolean writable;
+
+    /** Maps the values of fileName, which must match expected, growing it to hold every location */
+    public MappedDB(String fileName, DBHeader expected) throws IOException {
+        file = new RandomAccessFile(fileName, "rw");
+        writable = true;
+        FileChannel channel = file.getChannel();
+        header = DBHeader.open(channel, expected);
+        long base = header.getBodyOffset();
+        if (file.length() < base + header.getNumLocations()) {
+            file.setLength(base + header.getNumLocations());
+        }
+        length = file.length() - base;
+        segments = map(channel, FileChannel.MapMode.READ_WRITE, base, length);
+    }
+
+    /**
+     * Maps the values of fileName read only, described by its own header, so no Ranking has to be built.
+     * A sparse file can end before its last location, the rest reads as unsolved.
+     */
+    public MappedDB(String fileName) throws IOException {
+        DBHeader found = DBHeader.read(fileName);
+        found.check(found.withEncoding(DBHeader.ENCODING_PACKED_BYTE));
+        file = new RandomAccessFile(fileName, "r");
+        writable = false;
+        header = found;
+        long base = header.getBodyOffset();
+        length = Math.max(0, Math.min(header.getNumLocations(), file.length() - base));
+        segments = map(file.getChannel(), FileChannel.MapMode.READ_ONLY, base, length);
+    }
+
+    private static MappedByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode, long base, long length) throws IOException {
+        MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+        for (int i = 0; i < segments.length; i++) {
+            long start = i * SEGMENT_SIZE;
+            segments[i] = channel.map(mode, base + start, Math.min(SEGMENT_SIZE, length - start));
+        }
+        return segments;
+    }
+
+    public byte get(long location) {
+        if (location >= length) {
+            return PackedValue.NOT_PRIMITIVE;
+        }
+        return segments[(int) (location >>> SEGMENT_BITS)].get((int) (location & SEGMENT_MASK));
+    }
+
+    public void put(long location, byte value) {
+        segments[(int) (location >>> SEGMENT_BITS)].put((int) (location & SEGMENT_MASK), value);
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public DBHeader getHeader() {
+        return header;
+    }
+
+    public FileChannel getChannel() {
+        return file.getChannel();
+    }
+
+    /** Writes back changes to the header, like tiers marked complete */
+    public void writeHeader() throws IOException {
+        header.write(file.getChannel());
+    }
+
+    /** Writes every changed page back to the file */
+    public void force() {
+        if (!writable) {
+            return;
+        }
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    public void close() throws IOException {
+        force();
+        file.close();
+    }
+}
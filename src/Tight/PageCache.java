@@ -0,0 +1,211 @@
+package Tight;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read cache over a DB file in whole pages, evicted with CLOCK, so the children of a position,
+ * which sit close together within a tier, come out of one read instead of one read each.
+ * Solved values never change once written, so only the zeros of a page can go stale. Callers pass
+ * a generation that goes up whenever anyone writes to the file, and a zero read from a page loaded in
+ * an older generation reloads it.
+ * Frames are allocated as pages are first read, each taking pageSize bytes from a budget shared by every cache
+ * over the DB, so the limit holds for all threads together. A cache always gets one frame, even over budget.
+ */
+public class PageCache {
+    private final FileChannel channel;
+    private final long base; // File position of location 0
+    private final int pageBits;
+    private final AtomicLong budget; // Bytes of frames every cache sharing it may still allocate
+    private int numFrames;
+    private byte[][] frames = new byte[0][];
+    private long[] framePage = new long[0]; // -1 for a free frame
+    private long[] frameGeneration = new long[0];
+    private boolean[] referenced = new boolean[0];
+    private int hand;
+    // Page to frame, open addressing with page + 1 as the key so 0 is a free slot
+    private long[] indexKeys;
+    private int[] indexFrames;
+    private int indexMask;
+    private int indexShift;
+    long hits;
+    long misses;
+
+    /** Locations start at base in the file, pageSize must be a power of two, budget is shared with the other caches */
+    public PageCache(FileChannel channel, long base, int pageSize, AtomicLong budget) {
+        if (Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("Page size must be a power of two");
+        }
+        this.channel = channel;
+        this.base = base;
+        this.budget = budget;
+        pageBits = Integer.numberOfTrailingZeros(pageSize);
+        resizeIndex(16);
+    }
+
+    /** The byte at location, as of generation or later */
+    public byte get(long location, long generation) throws IOException {
+        long page = location >>> pageBits;
+        int offset = (int) (location & ((1 << pageBits) - 1));
+        int slot = find(page);
+        if (slot != -1) {
+            int frame = indexFrames[slot];
+            byte b = frames[frame][offset];
+            if (b != 0 || frameGeneration[frame] == generation) {
+                hits++;
+                referenced[frame] = true;
+                return b;
+            }
+            load(frame, page, generation);
+            return frames[frame][offset];
+        }
+        int frame = victim();
+        framePage[frame] = page;
+        insert(page, frame);
+        load(frame, page, generation);
+        return frames[frame][offset];
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /** Drops every frame and gives its bytes back to the budget, the cache can still be used after */
+    public void release() {
+        budget.addAndGet((long) numFrames << pageBits);
+        numFrames = 0;
+        hand = 0;
+        frames = new byte[0][];
+        framePage = new long[0];
+        frameGeneration = new long[0];
+        referenced = new boolean[0];
+        resizeIndex(16);
+    }
+
+    private void load(int frame, long page, long generation) throws IOException {
+        misses++;
+        byte[] data = frames[frame];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long start = base + (page << pageBits);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, start + buf.position()) < 0) {
+                break;
+            }
+        }
+        // Past the end of the file is unsolved
+        Arrays.fill(data, buf.position(), data.length, (byte) 0);
+        frameGeneration[frame] = generation;
+        referenced[frame] = true;
+    }
+
+    // A frame to load into: a new one while the budget lasts, or the first one the hand finds not used since it last came around
+    private int victim() {
+        if (reserve() || numFrames == 0) {
+            return addFrame();
+        }
+        while (true) {
+            int frame = hand;
+            hand = (hand + 1) % numFrames;
+            if (framePage[frame] == -1) {
+                return frame;
+            }
+            if (referenced[frame]) {
+                referenced[frame] = false;
+            } else {
+                remove(framePage[frame]);
+                framePage[frame] = -1;
+                return frame;
+            }
+        }
+    }
+
+    private boolean reserve() {
+        long pageSize = 1L << pageBits;
+        for (long left = budget.get(); left >= pageSize; left = budget.get()) {
+            if (budget.compareAndSet(left, left - pageSize)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int addFrame() {
+        if (numFrames == frames.length) {
+            int capacity = Math.max(16, numFrames * 2);
+            frames = Arrays.copyOf(frames, capacity);
+            framePage = Arrays.copyOf(framePage, capacity);
+            frameGeneration = Arrays.copyOf(frameGeneration, capacity);
+            referenced = Arrays.copyOf(referenced, capacity);
+            resizeIndex(capacity);
+        }
+        int frame = numFrames++;
+        frames[frame] = new byte[1 << pageBits];
+        framePage[frame] = -1;
+        return frame;
+    }
+
+    // Room for capacity frames at a quarter full, with every page loaded now put back
+    private void resizeIndex(int capacity) {
+        int indexSize = Integer.highestOneBit(capacity) << 2;
+        indexKeys = new long[indexSize];
+        indexFrames = new int[indexSize];
+        indexMask = indexSize - 1;
+        indexShift = Long.numberOfLeadingZeros(indexSize) + 1;
+        for (int f = 0; f < numFrames; f++) {
+            if (framePage[f] != -1) {
+                insert(framePage[f], f);
+            }
+        }
+    }
+
+    private int slot(long page) {
+        return (int) ((page * 0x9E3779B97F4A7C15L) >>> indexShift);
+    }
+
+    private int find(long page) {
+        for (int i = slot(page); ; i = (i + 1) & indexMask) {
+            if (indexKeys[i] == 0) {
+                return -1;
+            }
+            if (indexKeys[i] == page + 1) {
+                return i;
+            }
+        }
+    }
+
+    private void insert(long page, int frame) {
+        int i = slot(page);
+        while (indexKeys[i] != 0) {
+            i = (i + 1) & indexMask;
+        }
+        indexKeys[i] = page + 1;
+        indexFrames[i] = frame;
+    }
+
+    // Linear probing without tombstones: shift later entries back into the hole if their probe passed it
+    private void remove(long page) {
+        int hole = find(page);
+        int i = hole;
+        while (true) {
+            i = (i + 1) & indexMask;
+            if (indexKeys[i] == 0) {
+                break;
+            }
+            int home = slot(indexKeys[i] - 1);
+            boolean between = hole <= i ? (hole < home && home <= i) : (hole < home || home <= i);
+            if (!between) {
+                indexKeys[hole] = indexKeys[i];
+                indexFrames[hole] = indexFrames[i];
+                hole = i;
+            }
+        }
+        indexKeys[hole] = 0;
+    }
+}
@@ -1,26 +1,35 @@
 package Tight;
 
+import Helpers.ClaimSet;
 import Helpers.Piece;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ParallelRunner {
 
+    /** Usage: w h win [frontierDepth], the plies to split the tree at, 0 or none to pick from the number of threads */
     public static void main(String[] args) {
-        int w = 4;
-        int h = 4;
-        int win = 4;
+        int w = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int h = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int win = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int frontierDepth = args.length > 3 ? Integer.parseInt(args[3]) : 0;
         long start = System.currentTimeMillis();
         SharedVars sharedVars = new SharedVars();
         int n = Runtime.getRuntime().availableProcessors();
-        n = 2;
         System.out.println(n + " Threads");
         SolverSeekable topLevel = new SolverSeekable(w, h, win, sharedVars);
-        List<Piece[]> starters = topLevel.findNStartingPoints(n);
-        ArrayList<SolverSeekable> threads = new ArrayList<>(starters.size());
-        for (Piece[] starter : starters) {
-            SolverSeekable s = new SolverSeekable(w, h, win, starter, sharedVars);
+        // Largest first, so the long subtrees start early and the small ones fill in around them
+        Queue<Piece[]> work = new ConcurrentLinkedQueue<>();
+        for (Piece[] starter : topLevel.findNStartingPoints(n, frontierDepth)) {
+            if (!topLevel.isSolved(starter)) {
+                work.add(starter);
+            }
+        }
+        ArrayList<SolverSeekable> threads = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            SolverSeekable s = new SolverSeekable(w, h, win, work, sharedVars);
             threads.add(s);
             s.start();
         }
@@ -29,16 +38,34 @@ public class ParallelRunner {
                 thread.join();
             } catch (InterruptedException ignored) {}
         }
-        System.out.println("Threads Time taken : " + (((double) System.currentTimeMillis() - start) / 1000));
-        sharedVars.solving.clear();
-        topLevel.solve();
+        // The top of the tree, only once the starting points are solved. Started with the threads, it would claim
+        // some of them first, and the thread that took one from work would wait on it instead of solving
+        topLevel.start();
+        try {
+            topLevel.join();
+        } catch (InterruptedException ignored) {}
+        topLevel.markComplete();
         System.out.println("Total Time taken : " + (((double) System.currentTimeMillis() - start) / 1000));
+        System.out.println(sharedVars.writer.getStats());
         topLevel.play();
     }
 
     public static class SharedVars {
-        public volatile HashSet<Long> solving = new HashSet<>();
-        public volatile long maxLocationWritten = -1;
+        public static final long READ_CACHE_BYTES = 64L << 20;
+        // Locations some thread is solving, and the values solved but not written yet, see DBWriter
+        public final ClaimSet solving = new ClaimSet(1 << 23);
+        public volatile SolvedRegions solved; // Set up by the first SolverSeekable, which knows the board size
+        public volatile long generation = 0; // Number of flushes to the DB file, for PageCache
+        public volatile DBWriter writer; // Started by the first SolverSeekable, like solved
+        public final AtomicLong readCacheBytes; // What is left of the read cache budget of every SolverSeekable together
+
+        public SharedVars() {
+            this(READ_CACHE_BYTES);
+        }
+
+        public SharedVars(long readCacheBytes) {
+            this.readCacheBytes = new AtomicLong(readCacheBytes);
+        }
     }
 
 }
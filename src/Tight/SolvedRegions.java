@@ -0,0 +1,75 @@
+package Tight;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * One bit per region of a DB file, set once any location in the region has been written, so lookups
+ * into regions nothing was written to are answered as unsolved without reading the file.
+ * Regions are 2^regionBits locations, at least a read cache page, and large enough to keep the bitmap under 2^30 bits.
+ * A missing bit only costs a re-solve, so the bitmap is saved next to the DB at checkpoints, not on every write.
+ */
+public class SolvedRegions {
+    private final int regionBits;
+    private final AtomicLongArray words;
+
+    public SolvedRegions(long numLocations, int minRegionBits) {
+        int bits = minRegionBits;
+        while ((numLocations >>> bits) >= 1L << 30) {
+            bits++;
+        }
+        regionBits = bits;
+        words = new AtomicLongArray((int) ((numLocations >>> regionBits) / 64 + 1));
+    }
+
+    /** False if nothing in the region of location has been written */
+    public boolean mayBeSolved(long location) {
+        long region = location >>> regionBits;
+        return (words.get((int) (region >>> 6)) & (1L << region)) != 0;
+    }
+
+    public void markSolved(long location) {
+        long region = location >>> regionBits;
+        int i = (int) (region >>> 6);
+        long bit = 1L << region;
+        long word = words.get(i);
+        while ((word & bit) == 0 && !words.compareAndSet(i, word, word | bit)) {
+            word = words.get(i);
+        }
+    }
+
+    /** Replaces fileName in one rename, so a crash while saving leaves the last saved bitmap */
+    public void save(String fileName) throws IOException {
+        File temp = new File(fileName + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(regionBits);
+            out.writeInt(words.length());
+            for (int i = 0; i < words.length(); i++) {
+                out.writeLong(words.get(i));
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp.toPath(), Paths.get(fileName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Sets the bits saved in fileName, if it exists and was saved with the same regions */
+    public void load(String fileName) throws IOException {
+        File file = new File(fileName);
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != regionBits || in.readInt() != words.length()) {
+                return;
+            }
+            for (int i = 0; i < words.length(); i++) {
+                words.set(i, words.get(i) | in.readLong());
+            }
+        }
+    }
+}
@@ -4,10 +4,12 @@ import java.io.*;
 import java.util.*;
 
 import Games.Connect4;
+import Games.Position;
+import Games.GravityRanker;
+import Games.Ranking;
+import Helpers.PackedValue;
 import Helpers.Piece;
 import Helpers.Primitive;
-import Helpers.Tuple;
-import org.apache.commons.math3.util.CombinatoricsUtils;
 
 
 public class SolverRAF {
@@ -26,246 +28,93 @@ public class SolverRAF {
     int win;
     Connect4 game;
     private final Piece[] startingPosition;
-    int[] offsets;
-    private final int[][][] savedRearrange;
+    Ranking ranker;
     Random rand = new Random();
     String fileName;
-    RandomAccessFile raf;
+    MappedDB db;
+    ValueDB values; // Read by play instead of db once useValues is called
+    // The one board solve works on, moves are made and unmade in place
+    private Piece[] board;
+    private int[] heights;
+    private Position bits;
+    private long[][] directParts; // Per column parts of the rank of the board, by number of pieces
 
     /** Pieces stored in column major order, starting from bottom right*/
     public SolverRAF(int w, int h, int wi) {
+        this(w, h, wi, GravityRanker.of(w, h));
+    }
+
+    public SolverRAF(int w, int h, int wi, Ranking ranking) {
         width = w;
         height = h;
         win = wi;
         startingPosition = new Piece[w*h];
         Arrays.fill(startingPosition, Piece.EMPTY);
-        savedRearrange = new int[2 + w*h / 2][2 + w*h/2][w*h + 1];
-        for (int i = 0; i < 2 + w*h / 2; i++) {
-            for (int j = 0; j < 2 + w*h/2; j++) {
-                for (int k = 0; k < w*h + 1; k++) {
-                    savedRearrange[i][j][k] = -1;
-                }
-            }
-        }
-        setOffsets();
-        fileName = "connect4_by_" + width + "_by_" + height + "_win_" + win;
+        ranker = ranking;
+        fileName = "connect4_by_" + width + "_by_" + height + "_win_" + win + ranker.getFileSuffix();
 
         try {
-            raf = new RandomAccessFile(fileName, "rw");
-        } catch (FileNotFoundException e) {
-            throw new IllegalArgumentException("Cannot find file");
+            db = new MappedDB(fileName, new DBHeader(w, h, wi, DBHeader.ENCODING_PACKED_BYTE, ranker, false));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot open file " + fileName);
         }
 
     }
 
-    private void setOffsets() {
-        offsets = new int[width*height +1];
-        offsets[0] = 1;
-        for (int i = 1; i < offsets.length; i++) {
-            if (i % 2 == 0) {
-                offsets[i] = offsets[i-1] +  rearrange(i/2, i/2, startingPosition.length);
-            } else {
-                offsets[i] = offsets[i-1] + rearrange((i/2) + 1, i/2, startingPosition.length);
-            }
-        }
-        System.arraycopy(offsets, 0, offsets, 1, offsets.length - 1);
-//        for (int i = offsets.length - 1; i > 0; i--) {
-//            offsets[i] = offsets[i - 1];
-//        }
-        offsets[0] = 0;
+    /** The PackedValue stored at location, NOT_PRIMITIVE if it has not been solved */
+    private byte getValue(long location) {
+        return db.get(location);
     }
 
-    private int rearrange(int x, int o, int s) {
-        if (s == 0) {
-            return 0;
-        }
-        if (savedRearrange[x][o][s] != -1) {
-            return savedRearrange[x][o][s];
-        }
-        double sFact;
-        double oFact;
-        double xFact;
-        sFact = CombinatoricsUtils.factorialDouble(s);
-        oFact = CombinatoricsUtils.factorialDouble(o);
-        xFact = CombinatoricsUtils.factorialDouble(x);
-
-
-        double diffFact = CombinatoricsUtils.factorialDouble(s - x - o);
-        double ret = sFact / (oFact * xFact * diffFact);
-
-        int temper = (int) Math.round(ret);
-        savedRearrange[x][o][s] = temper;
-        return temper;
-
+    private void writeValue(long location, byte value) {
+        db.put(location, value);
     }
 
-    private Tuple<Primitive, Integer> getValue(int location) {
-        byte b;
+    public void solve() {
+        board = startingPosition.clone();
+        heights = game.getHeights(board);
+        bits = game.toBitboard(board);
+        directParts = new long[getSize() + 1][width];
+        ranker.rank(board, heights, 0, directParts[0], null);
+        solve(0, Piece.BLUE, -1);
+        db.getHeader().setAllComplete();
         try {
-            raf.seek(location);
-            b = raf.readByte();
-        } catch (Exception e) {
-            return null;
-        }
-        if (b == 0) {
-            return null;
-        }
-//        if (!memo.containsKey(location)) {
-//            return null;
-//        }
-//        byte b = memo.get(location);
-        int val = Byte.toUnsignedInt(b);
-        int remoteness = (val << 26) >>> 26;
-        Primitive p;
-        switch((val) >>> 6) {
-            case 0:
-                p = Primitive.NOT_PRIMITIVE;
-                break;
-            case 1:
-                p = Primitive.LOSS;
-                break;
-            case 2:
-                p = Primitive.WIN;
-                break;
-            case 3:
-                p = Primitive.TIE;
-                break;
-            default:
-                throw new IllegalStateException("two bits should only have those options");
-        }
-        return new Tuple<>(p, remoteness);
-    }
-
-    private byte byteValue(Tuple<Primitive, Integer> p) {
-        Integer temp;
-        switch (p.x) {
-            case NOT_PRIMITIVE:
-                temp = 0;
-                break;
-            case LOSS:
-                temp = 1;
-                break;
-            case WIN:
-                temp = 2;
-                break;
-            case TIE:
-                temp = 3;
-                break;
-            default:
-                throw new IllegalStateException("shhouldnt happpen");
-        }
-        temp = temp << 6;
-        temp += p.y;
-        return temp.byteValue();
-    }
-
-    private int calculateLocation(Piece[] position, int numPieces) {
-        int location = offsets[numPieces];
-        int numX = (numPieces / 2) + (numPieces % 2);
-        int numO = numPieces / 2;
-        int numBlanks = position.length - numPieces;
-        int s = position.length;
-        for (int i = position.length - 1; i >= 0; i--) {
-            if (s == numX || s == numO || s == numBlanks) {
-                break;
-            }
-            switch (position[i]) {
-                case BLUE:
-                    if (numO > 0) {
-                        location += rearrange(numX, numO - 1, s - 1);
-                    }
-                    if (numBlanks > 0) {
-                        location += rearrange(numX, numO, s - 1);
-                    }
-                    numX -= 1;
-                    break;
-                case RED:
-                    if (numBlanks > 0) {
-                        location += rearrange(numX, numO, s - 1);
-                    }
-                    numO -= 1;
-                    break;
-                case EMPTY:
-                    numBlanks -= 1;
-                    break;
-            }
-            s -= 1;
+            db.writeHeader();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write header of " + fileName);
         }
-        return location;
-    }
-
-    public void solve() {
-        solve(startingPosition, 0, Piece.BLUE, -1);
+        db.force();
     }
 
-    private Tuple<Primitive, Integer> solve(Piece[] position, int numPieces, Piece next, int m) {
-        int location = calculateLocation(position, numPieces);
-        Tuple<Primitive, Integer> solvedVal = getValue(location);
-        if (solvedVal != null) {
+    private byte solve(int numPieces, Piece next, int m) {
+        long location = ranker.location(numPieces, directParts[numPieces]);
+        byte solvedVal = getValue(location);
+        if (solvedVal != PackedValue.NOT_PRIMITIVE) {
             return solvedVal;
         }
 
         Piece placed = next.opposite();
-        Tuple<Primitive, Integer> p = game.isPrimitive(position, placed, m);
-        if (p.x != Primitive.NOT_PRIMITIVE) {
-            try {
-                raf.seek(location);
-                raf.write(byteValue(p));
-            } catch (Exception e) {
-                throw new IllegalStateException("bad things happen");
-            }
-            //memo.put(location, byteValue(p));
+        byte p = game.isPrimitive(bits, m);
+        if (p != PackedValue.NOT_PRIMITIVE) {
+            writeValue(location, p);
             return p;
         }
-        List<Integer> moves = game.generateMoves(position);
-        ArrayList<Tuple<Primitive, Integer>> nextPositionValues = new ArrayList<>(moves.size());
-        for (int move : moves) {
-            Piece[] newPosition = game.doMove(position, move, next);
-            nextPositionValues.add(solve(newPosition, numPieces + 1, placed, move));
-        }
-        int lossRemote = Integer.MAX_VALUE;
-        int tieRemote = -1;
-        int winRemote = -1;
-        for (Tuple<Primitive, Integer> val: nextPositionValues) {
-            if (val.x == Primitive.LOSS && val.y < lossRemote) {
-                lossRemote = val.y;
-            } else if (val.x == Primitive.TIE  && val.y > tieRemote) {
-                tieRemote = val.y;
-            } else if (val.y > winRemote){
-                winRemote = val.y;
-            }
-        }
-        if (lossRemote != Integer.MAX_VALUE) {
-            Tuple<Primitive, Integer> temp = new Tuple<>(Primitive.WIN, lossRemote + 1);
-            try {
-                raf.seek(location);
-                raf.write(byteValue(temp));
-            } catch (Exception e) {
-                throw new IllegalStateException("bad things happen");
-            }
-            //memo.put(location, byteValue(temp));
-            return temp;
-        } else if (tieRemote != -1) {
-            Tuple<Primitive, Integer> temp = new Tuple<>(Primitive.TIE, tieRemote + 1);
-            try {
-                raf.seek(location);
-                raf.write(byteValue(temp));
-            } catch (Exception e) {
-                throw new IllegalStateException("bad things happen");
-            }
-            //memo.put(location, byteValue(temp));
-            return temp;
-        } else {
-            Tuple<Primitive, Integer> temp = new Tuple<>(Primitive.LOSS, winRemote + 1);
-            try {
-                raf.seek(location);
-                raf.write(byteValue(temp));
-            } catch (Exception e) {
-                throw new IllegalStateException("bad things happen");
-            }
-            //memo.put(location, byteValue(temp));
-            return temp;
+        long moves = game.generateMoves(bits);
+        byte best = PackedValue.NOT_PRIMITIVE;
+        while (moves != 0) {
+            long move = moves & -moves; // Lowest column first, same order as the Piece[] generateMoves
+            moves ^= move;
+            int cell = game.cell(move);
+            game.makeMove(board, heights, cell / height, next);
+            game.makeMove(bits, move);
+            ranker.childRank(board, heights, numPieces + 1, cell / height, directParts[numPieces], null, directParts[numPieces + 1], null);
+            best = PackedValue.better(best, solve(numPieces + 1, placed, cell));
+            game.unmakeMove(bits, move);
+            game.unmakeMove(board, heights, cell / height);
         }
+        byte value = PackedValue.parent(best);
+        writeValue(location, value);
+        return value;
     }
 
     public int getSize() {
@@ -298,8 +147,39 @@ public class SolverRAF {
     }
 
 
+    /** Writes the solved values to a ValueDB next to the DB file, with their remoteness in a second file if withRemoteness */
+    public void exportValues(boolean withRemoteness) {
+        try {
+            ValueDB.export(db.getChannel(), db.getHeader(), fileName, withRemoteness);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not export values of " + fileName);
+        }
+    }
+
+    /** Writes the solved DB to a read only CompressedDB next to it */
+    public void exportCompressed() {
+        try {
+            CompressedDB.export(db.getChannel(), db.getHeader(), fileName);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not export " + fileName);
+        }
+    }
+
+    /** Makes play read the exported ValueDB instead of the DB file */
+    public void useValues(boolean loadRemoteness) {
+        try {
+            values = new ValueDB(fileName, db.getHeader(), loadRemoteness);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open values of " + fileName);
+        }
+    }
+
+    private byte lookup(long location) {
+        return values != null ? values.get(location) : getValue(location);
+    }
+
     public void play() {
-        int loc = calculateLocation(startingPosition, 0);
+        long loc = ranker.calculateLocation(startingPosition, 0);
 //        if (!memo.containsKey((loc))) {
 //            solve();
 //        }
@@ -309,9 +189,9 @@ public class SolverRAF {
         Piece nextP = Piece.BLUE;
         while (true) {
             printBoard(board);
-            Tuple<Primitive, Integer> prim = game.isPrimitive(board, nextP.opposite());
-            if (prim.x != Primitive.NOT_PRIMITIVE) {
-                if (prim.x == Primitive.TIE) {
+            byte prim = game.isPrimitive(board, nextP.opposite());
+            if (prim != PackedValue.NOT_PRIMITIVE) {
+                if (PackedValue.value(prim) == Primitive.TIE) {
                     System.out.println("Tie Game");
 
                 } else {
@@ -326,12 +206,12 @@ public class SolverRAF {
                 }
                 break;
             }
-            loc = calculateLocation(board, numPieces);
-            Tuple<Primitive, Integer> should = getValue(loc);
-            System.out.println(should.x);
-            if (should.x == Primitive.TIE) {
+            loc = ranker.calculateLocation(board, numPieces);
+            byte should = lookup(loc);
+            System.out.println(PackedValue.value(should));
+            if (PackedValue.value(should) == Primitive.TIE) {
                 System.out.println("Game should Tie");
-            } else if (should.x == Primitive.WIN) {
+            } else if (PackedValue.value(should) == Primitive.WIN) {
                 switch(nextP) {
                     case BLUE:
                         System.out.println("X should win");
@@ -350,17 +230,19 @@ public class SolverRAF {
                         break;
                 }
             }
-            System.out.println("in " + should.y);
+            if (values == null || values.hasRemoteness()) {
+                System.out.println("in " + PackedValue.remoteness(should));
+            }
             int next;
             numPieces ++;
             if (nextP == Piece.EMPTY) {
                 List<Integer> moves = game.generateMoves(board);
                 Collections.shuffle(moves);
-                ArrayList<Tuple<Primitive, Integer>> nextPositionValues = new ArrayList<>(moves.size());
+                List<Byte> nextPositionValues = new ArrayList<>(moves.size());
                 for (int move : moves) {
                     Piece[] newPosition = game.doMove(board, move, nextP);
-                    loc = calculateLocation(newPosition, numPieces);
-                    nextPositionValues.add(getValue(loc));
+                    loc = ranker.calculateLocation(newPosition, numPieces);
+                    nextPositionValues.add(lookup(loc));
 
                 }
                 int lossRemote = Integer.MAX_VALUE;
@@ -369,22 +251,22 @@ public class SolverRAF {
                 Primitive curPrim = Primitive.WIN;
                 int tempMove = -1;
                 for (int i = 0; i < nextPositionValues.size(); i++) {
-                    Tuple<Primitive, Integer> val = nextPositionValues.get(i);
-                    if (val.x == Primitive.LOSS && val.y <= lossRemote) {
-                        if (!(lossRemote == val.y && rand.nextBoolean())) {
-                            lossRemote = val.y;
+                    byte val = nextPositionValues.get(i);
+                    if (PackedValue.value(val) == Primitive.LOSS && PackedValue.remoteness(val) <= lossRemote) {
+                        if (!(lossRemote == PackedValue.remoteness(val) && rand.nextBoolean())) {
+                            lossRemote = PackedValue.remoteness(val);
                         }
                         curPrim = Primitive.LOSS;
                         tempMove = moves.get(i);
-                    } else if (curPrim != Primitive.LOSS && val.x == Primitive.TIE  && val.y >= tieRemote) {
-                        if (!(tieRemote == val.y && rand.nextBoolean())) {
-                            tieRemote = val.y;
+                    } else if (curPrim != Primitive.LOSS && PackedValue.value(val) == Primitive.TIE  && PackedValue.remoteness(val) >= tieRemote) {
+                        if (!(tieRemote == PackedValue.remoteness(val) && rand.nextBoolean())) {
+                            tieRemote = PackedValue.remoteness(val);
                         }
                         curPrim = Primitive.TIE;
                         tempMove = moves.get(i);
-                    } else if ((curPrim == Primitive.WIN) && val.y >= winRemote){
-                        if (!(winRemote == val.y && rand.nextBoolean())) {
-                            winRemote = val.y;
+                    } else if ((curPrim == Primitive.WIN) && PackedValue.remoteness(val) >= winRemote){
+                        if (!(winRemote == PackedValue.remoteness(val) && rand.nextBoolean())) {
+                            winRemote = PackedValue.remoteness(val);
                         }
                         curPrim = Primitive.WIN;
                         tempMove = moves.get(i);
@@ -426,9 +308,9 @@ public class SolverRAF {
                 Piece.BLUE, Piece.RED, Piece.BLUE,
                 Piece.EMPTY, Piece.EMPTY, Piece.EMPTY,
         };
-        Tuple<Primitive, Integer> should = game.isPrimitive(board, Piece.BLUE);
-        System.out.println(should.x);
-        System.out.println(should.y);
+        byte should = game.isPrimitive(board, Piece.BLUE);
+        System.out.println(PackedValue.value(should));
+        System.out.println(PackedValue.remoteness(should));
     }
 }
 
@@ -1,14 +1,17 @@
 package Tight;
 
 import Games.Connect4;
+import Games.Position;
+import Games.GravityRanker;
+import Games.Ranking;
+import Helpers.ClaimSet;
+import Helpers.PackedValue;
 import Helpers.Piece;
 import Helpers.Primitive;
-import Helpers.Tuple;
-import org.apache.commons.math3.util.CombinatoricsUtils;
-import java.nio.ByteBuffer;
-import java.nio.channels.SeekableByteChannel;
-import java.nio.file.Files;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 
 import static java.nio.file.StandardOpenOption.*;
@@ -35,9 +38,24 @@ public class SolverSeekable extends Thread {
         }
     }
 
+    /** A thread that solves positions from work until it is empty */
+    public SolverSeekable(int w, int h, int wi, Queue<Piece[]> work, ParallelRunner.SharedVars sharedVars) {
+        this(w, h, wi, sharedVars);
+        this.work = work;
+    }
+
     public void run () {
-        solve();
-        System.out.println("Thread" + Thread.currentThread().getId() + " is done and solved " + logs[7]);
+        if (work == null) {
+            solve();
+        } else {
+            Piece[] position;
+            while ((position = work.poll()) != null) {
+                solveFrom(position, countPieces(position), -1);
+            }
+            finish();
+        }
+        System.out.println("Thread" + Thread.currentThread().getId() + " is done and solved " + logs[7]
+                + ", waited on " + claimWaits + ", read cache " + pages.getHits() + " hits " + pages.getMisses() + " misses, " + sharedVars.writer.getStats());
     }
 
 
@@ -47,15 +65,31 @@ public class SolverSeekable extends Thread {
     int win;
     Connect4 game;
     private Piece[] startingPosition;
-    long[] offsets;
-    private final long[][][] savedRearrange;
+    Ranking ranker;
     Random rand = new Random();
     int startingPieces = 0;
+    Queue<Piece[]> work; // Positions to solve, largest first, shared with the other threads, null to solve startingPosition
     Piece startingPiece = Piece.BLUE;
     String fileName;
-    SeekableByteChannel channel;
-    Map<Long, Byte> cache = new HashMap<>();
-    long[] logs = new long[8]; // setOffsets, rearrange, calculateLocation, isPrim, generateMoves, doMoves, Fileio, numSolved
+    FileChannel channel;
+    DBHeader header;
+    long base; // File position of location 0
+    ValueDB values; // Read by play instead of the DB file once useValues is called
+    // The one board solve works on, moves are made and unmade in place
+    private Piece[] board;
+    private int[] heights;
+    private Position bits;
+    // Per column parts of the rank of the board and its mirror, by number of pieces, so children only rescan what changed
+    private long[][] directParts;
+    private long[][] mirrorParts;
+    long[] logs = new long[8]; // setOffsets, waiting for the writer, calculateLocation, isPrim, generateMoves, doMoves, Fileio, numSolved
+    long claimWaits; // Positions this thread found another thread solving and waited for
+    private int stores; // Values this thread has stored, to check the writer is keeping up every ROOM_CHECK of them
+    static final int ROOM_CHECK = 1024;
+    static final int FRONTIER_PER_THREAD = 8;
+    static final int COST_SAMPLES = 64;
+    static final int PAGE_SIZE = 16 * 1024;
+    PageCache pages;
     /** Pieces stored in column major order, starting from bottom right*/
     public SolverSeekable(int w, int h, int wi, ParallelRunner.SharedVars shared) {
         width = w;
@@ -64,321 +98,241 @@ public class SolverSeekable extends Thread {
         sharedVars = shared;
         startingPosition = new Piece[w*h];
         Arrays.fill(startingPosition, Piece.EMPTY);
-        savedRearrange = new long[2 + w*h / 2][2 + w*h/2][w*h + 1];
-        for (int i = 0; i < 2 + w*h / 2; i++) {
-            for (int j = 0; j < 2 + w*h/2; j++) {
-                for (int k = 0; k < w*h + 1; k++) {
-                    savedRearrange[i][j][k] = -1;
-                }
-            }
-        }
         game = new Connect4(width, height, win);
-        setOffsets();
-        fileName = "connect4_by_" + width + "_by_" + height + "_win_" + win + "_sparse";
-        Path path = null;//Path.of(fileName);
+        long temp = System.currentTimeMillis();
+        ranker = GravityRanker.of(width, height);
+        logs[0] += System.currentTimeMillis() - temp;
+        fileName = "connect4_by_" + width + "_by_" + height + "_win_" + win + "_sparse" + ranker.getFileSuffix();
+        Path path = Paths.get(fileName);
 
         try {
-            channel = Files.newByteChannel(path, EnumSet.of(CREATE_NEW, WRITE, SPARSE, READ));
+            channel = FileChannel.open(path, EnumSet.of(CREATE_NEW, WRITE, SPARSE, READ));
         } catch (Exception e) {
             try {
-                channel = Files.newByteChannel(path, EnumSet.of(WRITE, READ));
+                channel = FileChannel.open(path, EnumSet.of(WRITE, READ));
             } catch (Exception e1) {
                 throw new IllegalStateException("File opening went funky");
             }
 
         }
-
-    }
-
-    private void setOffsets() {
-        long temp = System.currentTimeMillis();
-        offsets = new long[width*height +1];
-        offsets[0] = 1;
-        for (int i = 1; i < offsets.length; i++) {
-            if (i % 2 == 0) {
-                offsets[i] = offsets[i-1] +  rearrange(i/2, i/2, startingPosition.length);
-            } else {
-                offsets[i] = offsets[i-1] + rearrange((i/2) + 1, i/2, startingPosition.length);
+        try {
+            header = DBHeader.open(channel, new DBHeader(w, h, wi, DBHeader.ENCODING_PACKED_BYTE, ranker, true));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read header of " + fileName);
+        }
+        base = header.getBodyOffset();
+        pages = new PageCache(channel, base, PAGE_SIZE, sharedVars.readCacheBytes);
+        synchronized (sharedVars) {
+            if (sharedVars.solved == null) {
+                sharedVars.solved = new SolvedRegions(ranker.getNumLocations(), Integer.numberOfTrailingZeros(PAGE_SIZE));
+                try {
+                    sharedVars.solved.load(fileName + ".solved");
+                } catch (IOException e) {
+                    e.printStackTrace(); // Starts from nothing solved, which only costs re-solving
+                }
+            }
+            if (sharedVars.writer == null) {
+                try {
+                    sharedVars.writer = new DBWriter(path, base, sharedVars, fileName + ".solved");
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not open " + fileName + " for writing");
+                }
+                sharedVars.writer.start();
             }
         }
-        System.arraycopy(offsets, 0, offsets, 1, offsets.length - 1);
-//        for (int i = offsets.length - 1; i > 0; i--) {
-//            offsets[i] = offsets[i - 1];
-//        }
-        offsets[0] = 0;
-        logs[0] += System.currentTimeMillis() - temp;
+
     }
 
-    private long rearrange(int x, int o, int s) {
+    /** The PackedValue stored at location, NOT_PRIMITIVE if it has not been solved */
+    byte getValue(long location) {
         long temp = System.currentTimeMillis();
-        if (s == 0) {
-            return 0;
+        // Solved by any thread and not written yet. The writer releases a claim only once the DB has its value
+        byte stored = sharedVars.solving.get(location);
+        if (stored != PackedValue.NOT_PRIMITIVE) {
+            return stored;
         }
-        if (savedRearrange[x][o][s] != -1) {
-            return savedRearrange[x][o][s];
+        if (!sharedVars.solved.mayBeSolved(location)) {
+            return PackedValue.NOT_PRIMITIVE;
         }
-        double sFact;
-        double oFact;
-        double xFact;
-        sFact = CombinatoricsUtils.factorialDouble(s);
-        oFact = CombinatoricsUtils.factorialDouble(o);
-        xFact = CombinatoricsUtils.factorialDouble(x);
-
-
-        double diffFact = CombinatoricsUtils.factorialDouble(s - x - o);
-        double ret = sFact / (oFact * xFact * diffFact);
+        try {
+            byte value = pages.get(location, sharedVars.generation);
+            logs[6] += System.currentTimeMillis() - temp;
+            return value;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return PackedValue.NOT_PRIMITIVE;
+        }
+    }
 
-        long temper = Math.round(ret);
-        savedRearrange[x][o][s] = temper;
+    /** True if the DB already has a value for position, so a restart can skip it */
+    public boolean isSolved(Piece[] position) {
+        return getValue(calculateLocation(position, countPieces(position))) != PackedValue.NOT_PRIMITIVE;
+    }
 
-        logs[1] += System.currentTimeMillis() - temp;
+    private static int countPieces(Piece[] position) {
+        int numPieces = 0;
+        for (Piece piece : position) {
+            if (piece != Piece.EMPTY) {
+                numPieces++;
+            }
+        }
+        return numPieces;
+    }
 
-        return temper;
+    private long calculateLocation(Piece[] position, int numPieces) {
+        long temp = System.currentTimeMillis();
+        long location = ranker.calculateMinLocation(position, numPieces);
+        logs[2] += System.currentTimeMillis() - temp;
+        return location;
+    }
 
+    public void solve() {
+        solveFrom(startingPosition, startingPieces, -1);
+        finish();
     }
 
-    private Tuple<Primitive, Integer> getValue(long location) {
-        long temp = System.currentTimeMillis();
-        byte b;
-        if (cache.containsKey(location)) {
-            b = cache.get(location);
-        } else {
-            if (sharedVars.maxLocationWritten < location) {
-                return null;
-            }
-            ByteBuffer buf = ByteBuffer.allocate(1);
-            try {
-                channel.position(location);
-                channel.read(buf);
-                buf.position(0);
-                b = buf.get();
-                logs[6] += System.currentTimeMillis() - temp;
-            } catch (Exception e) {
-                e.printStackTrace();
-                return null;
-            }
+    /** Solves position on this thread, last is the Piece[] index of the move that made it or -1 to check the whole board */
+    byte solveFrom(Piece[] position, int numPieces, int last) {
+        board = position.clone();
+        heights = game.getHeights(board);
+        bits = game.toBitboard(board);
+        if (directParts == null) {
+            directParts = new long[getSize() + 1][width];
+            mirrorParts = new long[getSize() + 1][width];
         }
-        if (b == 0) {
-            return null;
-        }
-        int val = Byte.toUnsignedInt(b);
-        int remoteness = (val << 26) >>> 26;
-        Primitive p;
-        switch((val) >>> 6) {
-            case 0:
-                p = Primitive.NOT_PRIMITIVE;
-                break;
-            case 1:
-                p = Primitive.LOSS;
-                break;
-            case 2:
-                p = Primitive.WIN;
-                break;
-            case 3:
-                p = Primitive.TIE;
-                break;
-            default:
-                throw new IllegalStateException("two bits should only have those options");
-        }
-        return new Tuple<>(p, remoteness);
+        ranker.rank(board, heights, numPieces, directParts[numPieces], mirrorParts[numPieces]);
+        return solve(numPieces, numPieces % 2 == 0 ? Piece.BLUE : Piece.RED, last);
     }
 
-    private byte byteValue(Tuple<Primitive, Integer> p) {
-        Integer temp;
-        switch (p.x) {
-            case NOT_PRIMITIVE:
-                temp = 0;
-                break;
-            case LOSS:
-                temp = 1;
-                break;
-            case WIN:
-                temp = 2;
-                break;
-            case TIE:
-                temp = 3;
-                break;
-            default:
-                throw new IllegalStateException("shouldn't happen");
+    /** Waits until everything stored so far, by any thread, is on disk */
+    void finish() {
+        try {
+            sharedVars.writer.flush();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException("Interrupted waiting for the writer");
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write " + fileName, e);
         }
-        temp = temp << 6;
-        temp += p.y;
-        return temp.byteValue();
     }
 
-    private long calculateLocationSym(Piece[] position, int numPieces) {
-        long temp = System.currentTimeMillis();
-        long location = offsets[numPieces];
-        int numX = (numPieces / 2) + (numPieces % 2);
-        int numO = numPieces / 2;
-        int numBlanks = position.length - numPieces;
-        int s = position.length;
-        for (int c = 0; c < width; c ++) {
-            for (int h = height - 1; h >= 0; h--) {
-                int i = c*height + h;
-                if (s == numX || s == numO || s == numBlanks) {
-                    break;
-                }
-                switch (position[i]) {
-                    case BLUE:
-                        if (numO > 0) {
-                            location += rearrange(numX, numO - 1, s - 1);
-                        }
-                        if (numBlanks > 0) {
-                            location += rearrange(numX, numO, s - 1);
-                        }
-                        numX -= 1;
-                        break;
-                    case RED:
-                        if (numBlanks > 0) {
-                            location += rearrange(numX, numO, s - 1);
-                        }
-                        numO -= 1;
-                        break;
-                    case EMPTY:
-                        numBlanks -= 1;
-                        break;
-                }
-                s -= 1;
-            }
+    /** Closes this solver's handle on the DB file and gives its read cache back, the writer is closed on its own */
+    public void close() {
+        pages.release();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        logs[2] += System.currentTimeMillis() - temp;
-        return location;
     }
 
-    private long calculateLocation(Piece[] position, int numPieces) {
-        long temp = System.currentTimeMillis();
-        long location = offsets[numPieces];
-        int numX = (numPieces / 2) + (numPieces % 2);
-        int numO = numPieces / 2;
-        int numBlanks = position.length - numPieces;
-        int s = position.length;
-        for (int i = position.length - 1; i >= 0; i--) {
-            if (s == numX || s == numO || s == numBlanks) {
-                break;
-            }
-            switch (position[i]) {
-                case BLUE:
-                    if (numO > 0) {
-                        location += rearrange(numX, numO - 1, s - 1);
-                    }
-                    if (numBlanks > 0) {
-                        location += rearrange(numX, numO, s - 1);
-                    }
-                    numX -= 1;
-                    break;
-                case RED:
-                    if (numBlanks > 0) {
-                        location += rearrange(numX, numO, s - 1);
-                    }
-                    numO -= 1;
-                    break;
-                case EMPTY:
-                    numBlanks -= 1;
-                    break;
+    /**
+     * Marks every tier of the DB complete if the empty board is solved. Only call it once every thread sharing
+     * the DB has finished, since values other threads found may not be written until then.
+     */
+    public void markComplete() {
+        // Throws if the writer failed, so a DB missing values is never marked complete
+        finish();
+        if (startingPieces != 0 || !isSolved(startingPosition)) {
+            return;
+        }
+        synchronized (sharedVars) {
+            try {
+                header.setAllComplete();
+                header.write(channel);
+                channel.force(false);
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-            s -= 1;
         }
-        logs[2] += System.currentTimeMillis() - temp;
-        return Math.min(location, calculateLocationSym(position, numPieces));
     }
 
-    private void writeToFile(long location, Byte b, boolean forceWrite) {
-        if (location != -1) {
-            if (cache.containsKey(location)) {
-                throw new IllegalStateException("Errors here");
+    // Waits for the value of a position another thread is solving, which is always deeper than anything it waits on
+    private byte solve(int numPieces, Piece next, int m) {
+        long t = System.currentTimeMillis();
+        long location = Math.min(ranker.location(numPieces, directParts[numPieces]), ranker.location(numPieces, mirrorParts[numPieces]));
+        logs[2] += System.currentTimeMillis() - t;
+        while (true) {
+            byte solvedVal = getValue(location);
+            if (solvedVal != PackedValue.NOT_PRIMITIVE) {
+                return solvedVal;
             }
-            cache.put(location, b);
-        }
-        if (cache.size() > 34888367 / 8 || forceWrite) { //Size of 5x5 34888367
-            System.out.println("Thread " + Thread.currentThread().getId()+ " Writing Back");
+            ClaimSet.Claim other = sharedVars.solving.claim(location);
+            if (other == null) {
+                break;
+            }
+            claimWaits++;
             try {
-                long t = System.currentTimeMillis();
-                ArrayList<Long> locations = new ArrayList<>(cache.keySet());
-                Collections.sort(locations);
-                if (locations.size() != 0 ) {
-                    sharedVars.maxLocationWritten = Math.max(locations.get(locations.size() - 1), sharedVars.maxLocationWritten);
-                }
-                ByteBuffer buf = ByteBuffer.allocate(1);
-                for (Long loc : locations) {
-                    channel.position(loc);
-                    buf.position(0);
-                    Byte temp = cache.get(loc);
-                    buf.put(temp);
-                    buf.position(0);
-                    channel.write(buf);
-                    sharedVars.solving.remove(loc);
+                byte v = other.await();
+                if (v != PackedValue.NOT_PRIMITIVE) {
+                    return v;
                 }
-                logs[6] += System.currentTimeMillis() - t;
-                cache.clear();
-            } catch (Exception e) {
-                e.printStackTrace();
+                // Its claimer failed and abandoned it, so try again
+            } catch (InterruptedException e) {
+                throw new IllegalStateException("Interrupted waiting for another thread");
+            }
+        }
+        boolean stored = false;
+        try {
+            byte value = solveClaimed(location, numPieces, next, m);
+            stored = true;
+            return value;
+        } finally {
+            // Waiters would hang on a claim that is never published, abandon does nothing once it is
+            if (!stored) {
+                sharedVars.solving.abandon(location);
             }
         }
-     }
-
-    public void solve() {
-        solve(startingPosition, startingPieces, startingPiece, -1);
-        writeToFile(-1, (byte) -1, true);
     }
 
-    private Tuple<Primitive, Integer> solve(Piece[] position, int numPieces, Piece next, int m) {
-        long location = calculateLocation(position, numPieces);
-        Tuple<Primitive, Integer> solvedVal = getValue(location);
-        if (solvedVal != null) {
-            return solvedVal;
-        }
-        if (sharedVars.solving.contains(location)) {
-            return null;
-        }
-        sharedVars.solving.add(location);
+    // Solves and stores a position this thread has claimed
+    private byte solveClaimed(long location, int numPieces, Piece next, int m) {
         logs[7] += 1;
         Piece placed = next.opposite();
         long t = System.currentTimeMillis();
-        Tuple<Primitive, Integer> p = game.isPrimitive(position, placed, m);
+        byte p = game.isPrimitive(bits, m);
         logs[3] += System.currentTimeMillis() - t;
-        if (p.x != Primitive.NOT_PRIMITIVE) {
-            writeToFile(location, byteValue(p), false);
+        if (p != PackedValue.NOT_PRIMITIVE) {
+            store(location, p);
             return p;
         }
         t = System.currentTimeMillis();
-        List<Integer> moves = game.generateMoves(position);
+        long moves = game.generateMoves(bits);
         logs[4] += System.currentTimeMillis() - t;
-        ArrayList<Tuple<Primitive, Integer>> nextPositionValues = new ArrayList<>(moves.size());
-        for (int move : moves) {
+        byte best = PackedValue.NOT_PRIMITIVE;
+        while (moves != 0) {
+            long move = moves & -moves; // Lowest column first, same order as the Piece[] generateMoves
+            moves ^= move;
+            int cell = game.cell(move);
             t = System.currentTimeMillis();
-            Piece[] newPosition = game.doMove(position, move, next);
+            game.makeMove(board, heights, cell / height, next);
+            game.makeMove(bits, move);
             logs[5] += System.currentTimeMillis() - t;
-            nextPositionValues.add(solve(newPosition, numPieces + 1, placed, move));
-        }
-        int lossRemote = Integer.MAX_VALUE;
-        int tieRemote = -1;
-        int winRemote = -1;
-        for (Tuple<Primitive, Integer> val: nextPositionValues) {
-            if (val == null) {
-                sharedVars.solving.remove(location);
-                return null;
-            }
-            if (val.x == Primitive.LOSS && val.y < lossRemote) {
-                lossRemote = val.y;
-            } else if (val.x == Primitive.TIE  && val.y > tieRemote) {
-                tieRemote = val.y;
-            } else if (val.y > winRemote){
-                winRemote = val.y;
-            }
+            t = System.currentTimeMillis();
+            ranker.childRank(board, heights, numPieces + 1, cell / height,
+                    directParts[numPieces], mirrorParts[numPieces], directParts[numPieces + 1], mirrorParts[numPieces + 1]);
+            logs[2] += System.currentTimeMillis() - t;
+            best = PackedValue.better(best, solve(numPieces + 1, placed, cell));
+            game.unmakeMove(bits, move);
+            game.unmakeMove(board, heights, cell / height);
         }
-        if (lossRemote != Integer.MAX_VALUE) {
-            Tuple<Primitive, Integer> temp = new Tuple<>(Primitive.WIN, lossRemote + 1);
-            writeToFile(location, byteValue(temp), false);
-            return temp;
-        } else if (tieRemote != -1) {
-            Tuple<Primitive, Integer> temp = new Tuple<>(Primitive.TIE, tieRemote + 1);
-            writeToFile(location, byteValue(temp), false);
-            return temp;
-        } else {
-            Tuple<Primitive, Integer> temp = new Tuple<>(Primitive.LOSS, winRemote + 1);
-            writeToFile(location, byteValue(temp), false);
-            return temp;
+        byte value = PackedValue.parent(best);
+        store(location, value);
+        return value;
+    }
+
+    /** Records the value of a location this thread claimed, for every thread now and in the DB once the writer spills it */
+    void store(long location, byte value) {
+        sharedVars.solving.publish(location, value);
+        if (++stores % ROOM_CHECK == 0) {
+            long t = System.currentTimeMillis();
+            try {
+                sharedVars.writer.awaitRoom();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException("Interrupted waiting for the writer");
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not write " + fileName, e);
+            }
+            logs[1] += System.currentTimeMillis() - t;
         }
     }
 
@@ -412,6 +366,37 @@ public class SolverSeekable extends Thread {
     }
 
 
+    /** Writes the solved values to a ValueDB next to the DB file, with their remoteness in a second file if withRemoteness */
+    public void exportValues(boolean withRemoteness) {
+        try {
+            ValueDB.export(channel, header, fileName, withRemoteness);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not export values of " + fileName);
+        }
+    }
+
+    /** Writes the solved DB to a read only CompressedDB next to it */
+    public void exportCompressed() {
+        try {
+            CompressedDB.export(channel, header, fileName);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not export " + fileName);
+        }
+    }
+
+    /** Makes play read the exported ValueDB instead of the DB file */
+    public void useValues(boolean loadRemoteness) {
+        try {
+            values = new ValueDB(fileName, header, loadRemoteness);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open values of " + fileName);
+        }
+    }
+
+    private byte lookup(long location) {
+        return values != null ? values.get(location) : getValue(location);
+    }
+
     public void play() {
         long loc = calculateLocation(startingPosition, 0);
 //        if (!memo.containsKey((loc))) {
@@ -423,9 +408,9 @@ public class SolverSeekable extends Thread {
         Piece nextP = Piece.BLUE;
         while (true) {
             printBoard(board);
-            Tuple<Primitive, Integer> prim = game.isPrimitive(board, nextP.opposite());
-            if (prim.x != Primitive.NOT_PRIMITIVE) {
-                if (prim.x == Primitive.TIE) {
+            byte prim = game.isPrimitive(board, nextP.opposite());
+            if (prim != PackedValue.NOT_PRIMITIVE) {
+                if (PackedValue.value(prim) == Primitive.TIE) {
                     System.out.println("Tie Game");
 
                 } else {
@@ -441,11 +426,11 @@ public class SolverSeekable extends Thread {
                 break;
             }
             loc = calculateLocation(board, numPieces);
-            Tuple<Primitive, Integer> should = getValue(loc);
-            System.out.println(should.x);
-            if (should.x == Primitive.TIE) {
+            byte should = lookup(loc);
+            System.out.println(PackedValue.value(should));
+            if (PackedValue.value(should) == Primitive.TIE) {
                 System.out.println("Game should Tie");
-            } else if (should.x == Primitive.WIN) {
+            } else if (PackedValue.value(should) == Primitive.WIN) {
                 switch(nextP) {
                     case BLUE:
                         System.out.println("X should win");
@@ -464,17 +449,19 @@ public class SolverSeekable extends Thread {
                         break;
                 }
             }
-            System.out.println("in " + should.y);
+            if (values == null || values.hasRemoteness()) {
+                System.out.println("in " + PackedValue.remoteness(should));
+            }
             int next;
             numPieces ++;
             if (nextP == Piece.EMPTY) {
                 List<Integer> moves = game.generateMoves(board);
                 Collections.shuffle(moves);
-                ArrayList<Tuple<Primitive, Integer>> nextPositionValues = new ArrayList<>(moves.size());
+                List<Byte> nextPositionValues = new ArrayList<>(moves.size());
                 for (int move : moves) {
                     Piece[] newPosition = game.doMove(board, move, nextP);
                     loc = calculateLocation(newPosition, numPieces);
-                    nextPositionValues.add(getValue(loc));
+                    nextPositionValues.add(lookup(loc));
                 }
                 int lossRemote = Integer.MAX_VALUE;
                 int tieRemote = -1;
@@ -482,22 +469,22 @@ public class SolverSeekable extends Thread {
                 Primitive curPrim = Primitive.WIN;
                 int tempMove = -1;
                 for (int i = 0; i < nextPositionValues.size(); i++) {
-                    Tuple<Primitive, Integer> val = nextPositionValues.get(i);
-                    if (val.x == Primitive.LOSS && val.y <= lossRemote) {
-                        if (!(lossRemote == val.y && rand.nextBoolean())) {
-                            lossRemote = val.y;
+                    byte val = nextPositionValues.get(i);
+                    if (PackedValue.value(val) == Primitive.LOSS && PackedValue.remoteness(val) <= lossRemote) {
+                        if (!(lossRemote == PackedValue.remoteness(val) && rand.nextBoolean())) {
+                            lossRemote = PackedValue.remoteness(val);
                         }
                         curPrim = Primitive.LOSS;
                         tempMove = moves.get(i);
-                    } else if (curPrim != Primitive.LOSS && val.x == Primitive.TIE  && val.y >= tieRemote) {
-                        if (!(tieRemote == val.y && rand.nextBoolean())) {
-                            tieRemote = val.y;
+                    } else if (curPrim != Primitive.LOSS && PackedValue.value(val) == Primitive.TIE  && PackedValue.remoteness(val) >= tieRemote) {
+                        if (!(tieRemote == PackedValue.remoteness(val) && rand.nextBoolean())) {
+                            tieRemote = PackedValue.remoteness(val);
                         }
                         curPrim = Primitive.TIE;
                         tempMove = moves.get(i);
-                    } else if ((curPrim == Primitive.WIN) && val.y >= winRemote){
-                        if (!(winRemote == val.y && rand.nextBoolean())) {
-                            winRemote = val.y;
+                    } else if ((curPrim == Primitive.WIN) && PackedValue.remoteness(val) >= winRemote){
+                        if (!(winRemote == PackedValue.remoteness(val) && rand.nextBoolean())) {
+                            winRemote = PackedValue.remoteness(val);
                         }
                         curPrim = Primitive.WIN;
                         tempMove = moves.get(i);
@@ -525,10 +512,10 @@ public class SolverSeekable extends Thread {
         }
 
     }
-    // setOffsets, rearrange, calculateLocation, isPrim, generateMoves, doMoves. fileIO
+    // setOffsets, waiting for the writer, calculateLocation, isPrim, generateMoves, doMoves. fileIO
     private void printLogs() {
         System.out.printf("setOffsets took %s%n", (double) logs[0] / 1000);
-        System.out.printf("rearrange took %s%n", (double) logs[1] / 1000);
+        System.out.printf("waiting for the writer took %s%n", (double) logs[1] / 1000);
         System.out.printf("calculateLocation took %s%n",(double) logs[2] / 1000);
         System.out.printf("isPrim took %s%n", (double) logs[3] / 1000);
         System.out.printf("generateMoves took %s%n", (double) logs[4] / 1000);
@@ -547,12 +534,17 @@ public class SolverSeekable extends Thread {
                 Piece.BLUE, Piece.RED, Piece.BLUE,
                 Piece.EMPTY, Piece.EMPTY, Piece.EMPTY,
         };
-        Tuple<Primitive, Integer> should = game.isPrimitive(board, Piece.BLUE);
-        System.out.println(should.x);
-        System.out.println(should.y);
+        byte should = game.isPrimitive(board, Piece.BLUE);
+        System.out.println(PackedValue.value(should));
+        System.out.println(PackedValue.remoteness(should));
     }
 
-    public List<Piece[]> findNStartingPoints(int n) {
+    /**
+     * Positions below startingPosition to hand out to n threads, largest estimated subtree first. Expands frontierDepth
+     * plies, or if that is 0 until there are FRONTIER_PER_THREAD positions per thread, keeping one board of each mirror
+     * pair and dropping boards that are already over, which are cheaper to solve than to hand out.
+     */
+    public List<Piece[]> findNStartingPoints(int n, int frontierDepth) {
         ArrayList<Piece[]> ret = new ArrayList<>();
         if (n <= 0) {
             return ret;
@@ -562,12 +554,71 @@ public class SolverSeekable extends Thread {
             ret.add(startingPosition);
             return ret;
         }
-        List<Integer> lst = game.generateMoves(startingPosition);
-        for (int i = 0; i < lst.size(); i++) {
-            ret.add(game.doMove(startingPosition, lst.get(i), Piece.BLUE));
+        List<Piece[]> frontier = new ArrayList<>();
+        frontier.add(startingPosition);
+        int depth = 0;
+        while (frontierDepth > 0 ? depth < frontierDepth : frontier.size() < n * FRONTIER_PER_THREAD) {
+            int numPieces = startingPieces + depth;
+            Piece next = numPieces % 2 == 0 ? Piece.BLUE : Piece.RED;
+            List<Piece[]> children = new ArrayList<>();
+            HashSet<Long> seen = new HashSet<>();
+            for (Piece[] position : frontier) {
+                for (int move : game.generateMoves(position)) {
+                    Piece[] child = game.doMove(position, move, next);
+                    if (game.isPrimitive(child, next) == PackedValue.NOT_PRIMITIVE
+                            && seen.add(calculateLocation(child, numPieces + 1))) {
+                        children.add(child);
+                    }
+                }
+            }
+            if (children.isEmpty()) {
+                break;
+            }
+            frontier = children;
+            depth++;
+        }
+        double[] costs = new double[frontier.size()];
+        Integer[] order = new Integer[frontier.size()];
+        for (int i = 0; i < costs.length; i++) {
+            costs[i] = estimateCost(frontier.get(i), COST_SAMPLES);
+            order[i] = i;
         }
+        Arrays.sort(order, (a, b) -> Double.compare(costs[b], costs[a]));
+        for (int i : order) {
+            ret.add(frontier.get(i));
+        }
+        System.out.printf("%d starting points %d plies down, estimated sizes %.0f to %.0f%n",
+                ret.size(), depth, costs[order[0]], costs[order[order.length - 1]]);
         return ret;
     }
+
+    /**
+     * Estimated size of the game tree below position, from random playouts: each counts the nodes a tree would have
+     * if every position on its path had as many children as the one it went through (Knuth's estimator).
+     * It counts transpositions again, so it is only good for comparing subtrees with each other.
+     */
+    double estimateCost(Piece[] position, int samples) {
+        double total = 0;
+        for (int s = 0; s < samples; s++) {
+            Position b = game.toBitboard(position);
+            int m = -1;
+            double level = 1; // Nodes at this depth of the estimated tree
+            double nodes = 1;
+            while (game.isPrimitive(b, m) == PackedValue.NOT_PRIMITIVE) {
+                long moves = game.generateMoves(b);
+                level *= Long.bitCount(moves);
+                nodes += level;
+                for (int k = rand.nextInt(Long.bitCount(moves)); k > 0; k--) {
+                    moves &= moves - 1;
+                }
+                long move = moves & -moves;
+                m = game.cell(move);
+                game.makeMove(b, move);
+            }
+            total += nodes;
+        }
+        return total / samples;
+    }
 }
 
 
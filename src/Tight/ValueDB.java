@@ -0,0 +1,151 @@
+package Tight;
+
+import Helpers.PackedValue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * The values of a solved DB without remoteness, 2 bits a location packed 4 to a byte, for lookups that only need
+ * to know who wins, like play hints. A quarter the size of the PackedValue DB it is exported from.
+ * The 2 bits are the Primitive bits of the PackedValue, so 0 is still unsolved. Remoteness can be exported
+ * to a second file of one byte a location and is only read if it is loaded.
+ */
+public class ValueDB {
+    public static final String VALUE_SUFFIX = "_values";
+    public static final String REMOTENESS_SUFFIX = "_remoteness";
+    static final int CHUNK = 1 << 20; // Locations exported at a time, a multiple of 4
+
+    private final DBHeader header;
+    private final MappedByteBuffer[] values;
+    private final MappedByteBuffer[] remoteness; // null if remoteness was not loaded
+
+    /**
+     * Maps the values exported from the DB file fileName, which was written with header, and its remoteness
+     * too if loadRemoteness is set
+     */
+    public ValueDB(String fileName, DBHeader header, boolean loadRemoteness) throws IOException {
+        this(fileName, loadRemoteness, header.withEncoding(DBHeader.ENCODING_VALUE_2BIT));
+    }
+
+    /** Maps the values exported from the DB file fileName described by their own header, no Ranking needed */
+    public ValueDB(String fileName, boolean loadRemoteness) throws IOException {
+        this(fileName, loadRemoteness, DBHeader.read(fileName + VALUE_SUFFIX).withEncoding(DBHeader.ENCODING_VALUE_2BIT));
+    }
+
+    private ValueDB(String fileName, boolean loadRemoteness, DBHeader header) throws IOException {
+        this.header = header;
+        values = open(fileName + VALUE_SUFFIX, this.header, (header.getNumLocations() + 3) / 4);
+        if (loadRemoteness) {
+            remoteness = open(fileName + REMOTENESS_SUFFIX, header.withEncoding(DBHeader.ENCODING_REMOTENESS), header.getNumLocations());
+        } else {
+            remoteness = null;
+        }
+    }
+
+    /** The PackedValue at location, with remoteness 0 unless remoteness was loaded */
+    public byte get(long location) {
+        long index = location >>> 2;
+        int b = values[(int) (index >>> MappedDB.SEGMENT_BITS)].get((int) (index & (MappedDB.SEGMENT_SIZE - 1)));
+        int value = (b >>> ((int) (location & 3) * 2)) & 3;
+        if (value == 0 || remoteness == null) {
+            return (byte) (value << 6);
+        }
+        return (byte) ((value << 6) | remoteness[(int) (location >>> MappedDB.SEGMENT_BITS)].get((int) (location & (MappedDB.SEGMENT_SIZE - 1))));
+    }
+
+    public boolean hasRemoteness() {
+        return remoteness != null;
+    }
+
+    public DBHeader getHeader() {
+        return header;
+    }
+
+    private static MappedByteBuffer[] open(String fileName, DBHeader expected, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), READ)) {
+            DBHeader found = DBHeader.read(channel);
+            if (found == null) {
+                throw new IllegalStateException(fileName + " has no header, it was not finished exporting");
+            }
+            found.check(expected);
+            if (channel.size() < found.getBodyOffset() + length) {
+                throw new IllegalStateException(fileName + " is too short");
+            }
+            // Mappings stay valid after the channel is closed
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((length + MappedDB.SEGMENT_SIZE - 1) >>> MappedDB.SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * MappedDB.SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, found.getBodyOffset() + start, Math.min(MappedDB.SEGMENT_SIZE, length - start));
+            }
+            return segments;
+        }
+    }
+
+    /**
+     * Writes the values of the PackedValue DB open on source, described by header, to fileName + VALUE_SUFFIX,
+     * and their remoteness to fileName + REMOTENESS_SUFFIX if withRemoteness is set.
+     * Headers are written last, so an export cut short is not mistaken for a finished one.
+     */
+    public static void export(FileChannel source, DBHeader header, String fileName, boolean withRemoteness) throws IOException {
+        long numLocations = header.getNumLocations();
+        DBHeader valueHeader = header.withEncoding(DBHeader.ENCODING_VALUE_2BIT);
+        DBHeader remotenessHeader = header.withEncoding(DBHeader.ENCODING_REMOTENESS);
+        try (FileChannel valueOut = FileChannel.open(Paths.get(fileName + VALUE_SUFFIX), CREATE, TRUNCATE_EXISTING, WRITE);
+             FileChannel remotenessOut = withRemoteness
+                     ? FileChannel.open(Paths.get(fileName + REMOTENESS_SUFFIX), CREATE, TRUNCATE_EXISTING, WRITE) : null) {
+            ByteBuffer in = ByteBuffer.allocate(CHUNK);
+            ByteBuffer packed = ByteBuffer.allocate(CHUNK / 4);
+            for (long start = 0; start < numLocations; start += CHUNK) {
+                int length = (int) Math.min(CHUNK, numLocations - start);
+                in.clear();
+                in.limit(length);
+                while (in.hasRemaining()) {
+                    if (source.read(in, header.getBodyOffset() + start + in.position()) < 0) {
+                        break;
+                    }
+                }
+                // Past the end of a sparse file is unsolved
+                while (in.hasRemaining()) {
+                    in.put(PackedValue.NOT_PRIMITIVE);
+                }
+                packed.clear();
+                for (int i = 0; i < length; i += 4) {
+                    int b = 0;
+                    for (int j = 0; j < 4 && i + j < length; j++) {
+                        b |= (Byte.toUnsignedInt(in.get(i + j)) >>> 6) << (j * 2);
+                    }
+                    packed.put((byte) b);
+                }
+                packed.flip();
+                write(valueOut, packed, valueHeader.getBodyOffset() + start / 4);
+                if (withRemoteness) {
+                    for (int i = 0; i < length; i++) {
+                        in.put(i, (byte) PackedValue.remoteness(in.get(i)));
+                    }
+                    in.flip();
+                    write(remotenessOut, in, remotenessHeader.getBodyOffset() + start);
+                }
+            }
+            valueOut.force(false);
+            valueHeader.write(valueOut);
+            valueOut.force(false);
+            if (withRemoteness) {
+                remotenessOut.force(false);
+                remotenessHeader.write(remotenessOut);
+                remotenessOut.force(false);
+            }
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf, position + buf.position());
+        }
+    }
+}
@@ -1,18 +1,13 @@
 package Zobrist;
 
+import Games.WinDetector;
+import Helpers.PackedValue;
+import Helpers.Primitive;
+
 import java.io.*;
 import java.util.*;
 public class Connect4 {
 
-    public static class Tuple<X, Y> implements Serializable{
-        public final X x;
-        public final Y y;
-        public Tuple(X x, Y y) {
-            this.x = x;
-            this.y = y;
-        }
-    }
-
     public Piece[] getStartingPosition() {
         return startingPosition;
     }
@@ -40,7 +35,10 @@ public class Connect4 {
     Random rand;
     long seed;
     long startingHash;
-    HashMap<Long, Tuple<Primitive, Integer>> memo;
+    HashMap<Long, Byte> memo; // PackedValue of every solved position
+    WinDetector detector; // null if the board does not fit in 64 bits, solve then checks the Piece[] instead
+    int[] heights; // Column heights of the board solve is working on
+    long bottomMask; // Lowest square of every column in the detector's bitboard layout
 
     /** Pieces stored in column major order, starting from bottom right*/
     public Connect4(int w, int h, int wi) {
@@ -53,6 +51,12 @@ public class Connect4 {
         rand = new Random(seed);
         initZobrist();
         memo = new HashMap<>();
+        if (w * (h + 1) <= Long.SIZE) {
+            detector = new WinDetector(w, h, wi);
+            for (int c = 0; c < w; c++) {
+                bottomMask |= detector.bit(c * h);
+            }
+        }
     }
 
 
@@ -63,6 +67,20 @@ public class Connect4 {
         return newPosition;
     }
 
+    /** Drops p into column of position in place, returns the index it landed on */
+    public int makeMove(Piece[] position, int column, Piece p) {
+        int move = heights[column] + column * height;
+        position[move] = p;
+        heights[column]++;
+        return move;
+    }
+
+    /** Undoes makeMove(position, column, p) */
+    public void unmakeMove(Piece[] position, int column) {
+        heights[column]--;
+        position[heights[column] + column * height] = Piece.EMPTY;
+    }
+
 
     public List<Integer> generateMoves(Piece[] position) {
         List<Integer> ret = new ArrayList<>();
@@ -76,7 +94,13 @@ public class Connect4 {
         return ret;
     }
 
-    public Tuple<Primitive, Integer> isPrimitive(Piece[] position, Piece placed) {
+    /** Bitboard of the lowest empty square of every column that is not full */
+    public long generateMoves(long occupied) {
+        requireDetector();
+        return (occupied + bottomMask) & detector.getBoardMask();
+    }
+
+    public byte isPrimitive(Piece[] position, Piece placed) {
         boolean full = true;
         for (int column = 0; column < width; column++) {
             int row = height - 1;
@@ -99,7 +123,7 @@ public class Connect4 {
                         break;
                     }
                     if (r == row - win + 1) {
-                        return new Tuple<>(Primitive.LOSS, 0);
+                        return PackedValue.PRIMITIVE_LOSS;
                     }
                 }
             }
@@ -134,7 +158,7 @@ public class Connect4 {
 //                    }
                 }
                 if (in_a_row >= win) {
-                    return new Tuple<>(Primitive.LOSS, 0);
+                    return PackedValue.PRIMITIVE_LOSS;
                 }
             }
 
@@ -157,7 +181,7 @@ public class Connect4 {
                     }
                 }
                 if (in_a_diag >= win) {
-                    return new Tuple<>(Primitive.LOSS, 0);
+                    return PackedValue.PRIMITIVE_LOSS;
                 }
             }
 
@@ -180,21 +204,21 @@ public class Connect4 {
                     }
                 }
                 if (in_a_diag >= win) {
-                    return new Tuple<>(Primitive.LOSS, 0);
+                    return PackedValue.PRIMITIVE_LOSS;
                 }
             }
         }
         if (full) {
-            return new Tuple<>(Primitive.TIE, 0);
+            return PackedValue.PRIMITIVE_TIE;
         } else {
-            return new Tuple<>(Primitive.NOT_PRIMITIVE, 0);
+            return PackedValue.NOT_PRIMITIVE;
         }
     }
 
     // The same as isPrimitive(position, placed) except we only check the one location we need to
-    public Tuple<Primitive, Integer> isPrimitive(Piece[] position, Piece placed, int location) {
+    public byte isPrimitive(Piece[] position, Piece placed, int location) {
         if (location == -1) {
-            return new Tuple<>(Primitive.NOT_PRIMITIVE, 0);
+            return PackedValue.NOT_PRIMITIVE;
         }
         boolean full = true;
         for (int column = 0; column < width; column++) {
@@ -214,7 +238,7 @@ public class Connect4 {
                     break;
                 }
                 if (r == row - win + 1) {
-                    return new Tuple<>(Primitive.LOSS, 0);
+                    return PackedValue.PRIMITIVE_LOSS;
                 }
             }
         }
@@ -249,7 +273,7 @@ public class Connect4 {
 //                    }
             }
             if (in_a_row >= win) {
-                return new Tuple<>(Primitive.LOSS, 0);
+                return PackedValue.PRIMITIVE_LOSS;
             }
         }
 
@@ -272,7 +296,7 @@ public class Connect4 {
                 }
             }
             if (in_a_diag >= win) {
-                return new Tuple<>(Primitive.LOSS, 0);
+                return PackedValue.PRIMITIVE_LOSS;
             }
         }
 
@@ -295,14 +319,36 @@ public class Connect4 {
                 }
             }
             if (in_a_diag >= win) {
-                return new Tuple<>(Primitive.LOSS, 0);
+                return PackedValue.PRIMITIVE_LOSS;
             }
 
         }
         if (full) {
-            return new Tuple<>(Primitive.TIE, 0);
+            return PackedValue.PRIMITIVE_TIE;
+        } else {
+            return PackedValue.NOT_PRIMITIVE;
+        }
+    }
+
+    // Bitboard version of isPrimitive(position, placed, location), placedBits are the pieces of placed
+    public byte isPrimitive(long placedBits, long occupied, int location) {
+        requireDetector();
+        if (location == -1) {
+            return PackedValue.NOT_PRIMITIVE;
+        }
+        if (detector.completesWin(placedBits, detector.index(location))) {
+            return PackedValue.PRIMITIVE_LOSS;
+        }
+        if (occupied == detector.getBoardMask()) {
+            return PackedValue.PRIMITIVE_TIE;
         } else {
-            return new Tuple<>(Primitive.NOT_PRIMITIVE, 0);
+            return PackedValue.NOT_PRIMITIVE;
+        }
+    }
+
+    private void requireDetector() {
+        if (detector == null) {
+            throw new IllegalStateException(width + "x" + height + " does not fit in a 64 bit board");
         }
     }
 
@@ -363,53 +409,70 @@ public class Connect4 {
     }
 
     public void solve() {
-        solve(getStartingPosition(), hash(getStartingPosition()), hash(getStartingPosition()), Piece.BLUE, -1);
+        heights = new int[width];
+        if (detector == null) {
+            solve(getStartingPosition(), hash(getStartingPosition()), hash(getStartingPosition()), Piece.BLUE, -1);
+        } else {
+            solve(getStartingPosition(), hash(getStartingPosition()), hash(getStartingPosition()), Piece.BLUE, -1, 0, 0);
+        }
     }
 
-    private Tuple<Primitive, Integer> solve(Piece[] position, long hash, long symHash, Piece next, int m) {
+    // solve for boards too large for the detector, checking the Piece[] for wins
+    private byte solve(Piece[] position, long hash, long symHash, Piece next, int m) {
         long min = Math.min(hash, symHash);
-        //long min = hash; // Use to stop removing symmetries
-        if (memo.containsKey(min)) {
-            return memo.get(min);
+        Byte solved = memo.get(min);
+        if (solved != null) {
+            return solved;
         }
-
         Piece placed = next.opposite();
-        Tuple<Primitive, Integer> p = isPrimitive(position, placed, m);
-        if (p.x != Primitive.NOT_PRIMITIVE) {
+        byte p = isPrimitive(position, placed, m);
+        if (p != PackedValue.NOT_PRIMITIVE) {
             memo.put(min, p);
             return p;
         }
-        List<Integer> moves = generateMoves(position);
-        ArrayList<Tuple<Primitive, Integer>> nextPositionValues = new ArrayList<>(moves.size());
-        for (int move : moves) {
-            Piece[] newPosition = doMove(position, move, next);
-            nextPositionValues.add(solve(newPosition, addHash(hash, next, move), addHash(symHash, next, symMove(move)), placed, move));
-        }
-        int lossRemote = Integer.MAX_VALUE;
-        int tieRemote = -1;
-        int winRemote = -1;
-        for (Tuple<Primitive, Integer> val: nextPositionValues) {
-            if (val.x == Primitive.LOSS && val.y < lossRemote) {
-                lossRemote = val.y;
-            } else if (val.x == Primitive.TIE  && val.y > tieRemote) {
-                tieRemote = val.y;
-            } else if (val.y > winRemote){
-                winRemote = val.y;
+        byte best = PackedValue.NOT_PRIMITIVE;
+        for (int column = 0; column < width; column++) {
+            if (heights[column] == height) {
+                continue;
             }
+            int move = makeMove(position, column, next);
+            best = PackedValue.better(best, solve(position, addHash(hash, next, move), addHash(symHash, next, symMove(move)), placed, move));
+            unmakeMove(position, column);
         }
-        if (lossRemote != Integer.MAX_VALUE) {
-            Tuple<Primitive, Integer> temp = new Tuple<>(Primitive.WIN, lossRemote + 1);
-            memo.put(min, temp);
-            return temp;
-        } else if (tieRemote != -1) {
-            Tuple<Primitive, Integer> temp = new Tuple<>(Primitive.TIE, tieRemote + 1);
-            memo.put(min, temp);
-            return temp;
-        } else {
-            Tuple<Primitive, Integer> temp = new Tuple<>(Primitive.LOSS, winRemote + 1);
-            memo.put(min, temp);
-            return temp;
+        byte value = PackedValue.parent(best);
+        memo.put(min, value);
+        return value;
+    }
+
+    // nextBits and placedBits are the bitboards of next and placed, kept alongside position for isPrimitive
+    private byte solve(Piece[] position, long hash, long symHash, Piece next, int m, long nextBits, long placedBits) {
+        long min = Math.min(hash, symHash);
+        //long min = hash; // Use to stop removing symmetries
+        Byte solved = memo.get(min);
+        if (solved != null) {
+            return solved;
+        }
+
+        Piece placed = next.opposite();
+        byte p = isPrimitive(placedBits, nextBits | placedBits, m);
+        if (p != PackedValue.NOT_PRIMITIVE) {
+            memo.put(min, p);
+            return p;
+        }
+        long moves = generateMoves(nextBits | placedBits);
+        byte best = PackedValue.NOT_PRIMITIVE;
+        while (moves != 0) {
+            long bit = moves & -moves;
+            moves ^= bit;
+            int move = detector.cell(bit);
+            makeMove(position, move / height, next);
+            best = PackedValue.better(best, solve(position, addHash(hash, next, move), addHash(symHash, next, symMove(move)), placed, move,
+                    placedBits, nextBits | bit));
+            unmakeMove(position, move / height);
         }
+        byte value = PackedValue.parent(best);
+        memo.put(min, value);
+        return value;
     }
 
     private int symMove(int move) {
@@ -421,13 +484,13 @@ public class Connect4 {
     }
 
     public void printInfo() {
-        System.out.println("value of game is: " + memo.get(hash(startingPosition)).x);
+        System.out.println("value of game is: " + PackedValue.value(memo.get(hash(startingPosition))));
         System.out.println("size of game is: " + memo.size());
         int ties = 0;
         int wins = 0;
         int losses = 0;
-        for(Tuple<Primitive, Integer> tuple : memo.values()) {
-            switch (tuple.x) {
+        for (byte value : memo.values()) {
+            switch (PackedValue.value(value)) {
                 case TIE:
                     ties ++;
                     break;
@@ -462,7 +525,7 @@ public class Connect4 {
             seed = ois.readLong();
             Object temp = ois.readObject();
             initZobrist();
-            memo = (HashMap<Long, Tuple<Primitive, Integer>>) temp;
+            memo = (HashMap<Long, Byte>) temp;
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
         }
@@ -504,9 +567,9 @@ public class Connect4 {
         Piece nextP = Piece.BLUE;
         while (true) {
             printBoard(board);
-            Tuple<Primitive, Integer> prim = isPrimitive(board, nextP.opposite());
-            if (prim.x != Primitive.NOT_PRIMITIVE) {
-                if (prim.x == Primitive.TIE) {
+            byte prim = isPrimitive(board, nextP.opposite());
+            if (prim != PackedValue.NOT_PRIMITIVE) {
+                if (PackedValue.value(prim) == Primitive.TIE) {
                     System.out.println("Tie Game");
 
                 } else {
@@ -521,11 +584,11 @@ public class Connect4 {
                 }
                 break;
             }
-            Tuple<Primitive, Integer> should = memo.get(hash(board));
-            System.out.println(should.x);
-            if (should.x == Primitive.TIE) {
+            byte should = memo.get(hash(board));
+            System.out.println(PackedValue.value(should));
+            if (PackedValue.value(should) == Primitive.TIE) {
                 System.out.println("Game should Tie");
-            } else if (should.x == Primitive.WIN) {
+            } else if (PackedValue.value(should) == Primitive.WIN) {
                 switch(nextP) {
                     case BLUE:
                         System.out.println("X should win");
@@ -544,12 +607,12 @@ public class Connect4 {
                         break;
                 }
             }
-            System.out.println("in " + should.y);
+            System.out.println("in " + PackedValue.remoteness(should));
             int next;
             if (nextP == Piece.EMPTY) {
                 List<Integer> moves = generateMoves(board);
                 Collections.shuffle(moves);
-                ArrayList<Tuple<Primitive, Integer>> nextPositionValues = new ArrayList<>(moves.size());
+                List<Byte> nextPositionValues = new ArrayList<>(moves.size());
                 for (int move : moves) {
                     Piece[] newPosition = doMove(board, move, nextP);
                     nextPositionValues.add(memo.get(hash(newPosition)));
@@ -561,22 +624,22 @@ public class Connect4 {
                 Primitive curPrim = Primitive.WIN;
                 int tempMove = -1;
                 for (int i = 0; i < nextPositionValues.size(); i++) {
-                    Tuple<Primitive, Integer> val = nextPositionValues.get(i);
-                    if (val.x == Primitive.LOSS && val.y <= lossRemote) {
-                        if (!(lossRemote == val.y && rand.nextBoolean())) {
-                            lossRemote = val.y;
+                    byte val = nextPositionValues.get(i);
+                    if (PackedValue.value(val) == Primitive.LOSS && PackedValue.remoteness(val) <= lossRemote) {
+                        if (!(lossRemote == PackedValue.remoteness(val) && rand.nextBoolean())) {
+                            lossRemote = PackedValue.remoteness(val);
                         }
                         curPrim = Primitive.LOSS;
                         tempMove = moves.get(i);
-                    } else if (curPrim != Primitive.LOSS && val.x == Primitive.TIE  && val.y >= tieRemote) {
-                        if (!(tieRemote == val.y && rand.nextBoolean())) {
-                            tieRemote = val.y;
+                    } else if (curPrim != Primitive.LOSS && PackedValue.value(val) == Primitive.TIE  && PackedValue.remoteness(val) >= tieRemote) {
+                        if (!(tieRemote == PackedValue.remoteness(val) && rand.nextBoolean())) {
+                            tieRemote = PackedValue.remoteness(val);
                         }
                         curPrim = Primitive.TIE;
                         tempMove = moves.get(i);
-                    } else if ((curPrim == Primitive.WIN) && val.y >= winRemote){
-                        if (!(winRemote == val.y && rand.nextBoolean())) {
-                            winRemote = val.y;
+                    } else if ((curPrim == Primitive.WIN) && PackedValue.remoteness(val) >= winRemote){
+                        if (!(winRemote == PackedValue.remoteness(val) && rand.nextBoolean())) {
+                            winRemote = PackedValue.remoteness(val);
                         }
                         curPrim = Primitive.WIN;
                         tempMove = moves.get(i);
@@ -618,9 +681,9 @@ public class Connect4 {
                                      Piece.BLUE, Piece.RED, Piece.BLUE,
                                      Piece.EMPTY, Piece.EMPTY, Piece.EMPTY,
                                       };
-        Tuple<Primitive, Integer> should = isPrimitive(board, Piece.BLUE);
-        System.out.println(should.x);
-        System.out.println(should.y);
+        byte should = isPrimitive(board, Piece.BLUE);
+        System.out.println(PackedValue.value(should));
+        System.out.println(PackedValue.remoteness(should));
     }
 }
 